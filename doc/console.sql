@@ -3,4 +3,23 @@ use hmdp;
 # 清空表
 TRUNCATE TABLE tb_voucher_order;
 
+# 一人一单唯一索引，已有库执行一次；存在重复订单时需先清理
+ALTER TABLE tb_voucher_order ADD UNIQUE INDEX uk_user_voucher (user_id, voucher_id);
+
+# 分桶库存表，已有库执行一次；总库存视图已不再使用，可以删除
+CREATE TABLE IF NOT EXISTS tb_seckill_voucher_stock (
+  voucher_id bigint(20) UNSIGNED NOT NULL COMMENT '关联的优惠券的id',
+  bucket int(8) NOT NULL COMMENT '桶序号',
+  stock int(8) NOT NULL COMMENT '本桶库存',
+  update_time timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+  PRIMARY KEY (voucher_id, bucket)
+) ENGINE = InnoDB CHARACTER SET = utf8mb4 COMMENT = '秒杀优惠券分桶库存表，总库存为各桶之和';
+DROP VIEW IF EXISTS v_seckill_voucher_stock;
+
+# 超时取消的订单不再占用一人一单唯一索引，已有库执行一次
+ALTER TABLE tb_voucher_order
+  ADD COLUMN active tinyint(1) UNSIGNED NULL DEFAULT 1 COMMENT '有效订单为1，已取消为NULL，不参与一人一单唯一约束',
+  DROP INDEX uk_user_voucher,
+  ADD UNIQUE INDEX uk_user_voucher (user_id, voucher_id, active);
+
 show create table tb_follow;
\ No newline at end of file
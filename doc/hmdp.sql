@@ -99,6 +99,18 @@ CREATE TABLE `tb_seckill_voucher`  (
 -- Records of tb_seckill_voucher
 -- ----------------------------
 
+-- ----------------------------
+-- Table structure for tb_seckill_voucher_stock
+-- ----------------------------
+DROP TABLE IF EXISTS `tb_seckill_voucher_stock`;
+CREATE TABLE `tb_seckill_voucher_stock`  (
+  `voucher_id` bigint(20) UNSIGNED NOT NULL COMMENT '关联的优惠券的id',
+  `bucket` int(8) NOT NULL COMMENT '桶序号',
+  `stock` int(8) NOT NULL COMMENT '本桶库存',
+  `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+  PRIMARY KEY (`voucher_id`, `bucket`) USING BTREE
+) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci COMMENT = '秒杀优惠券分桶库存表，总库存为各桶之和' ROW_FORMAT = Compact;
+
 -- ----------------------------
 -- Table structure for tb_shop
 -- ----------------------------
@@ -1274,7 +1286,9 @@ CREATE TABLE `tb_voucher_order`  (
   `use_time` timestamp NULL DEFAULT NULL COMMENT '核销时间',
   `refund_time` timestamp NULL DEFAULT NULL COMMENT '退款时间',
   `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
-  PRIMARY KEY (`id`) USING BTREE
+  `active` tinyint(1) UNSIGNED NULL DEFAULT 1 COMMENT '有效订单为1，已取消为NULL，不参与一人一单唯一约束',
+  PRIMARY KEY (`id`) USING BTREE,
+  UNIQUE INDEX `uk_user_voucher`(`user_id`, `voucher_id`, `active`) USING BTREE
 ) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Compact;
 
 -- ----------------------------
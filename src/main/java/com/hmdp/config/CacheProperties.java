@@ -0,0 +1,109 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 缓存相关配置，对应 application.yaml 中的 cache.*
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "cache")
+public class CacheProperties {
+
+    /**
+     * 进程内一级缓存配置
+     */
+    private Local local = new Local();
+
+    /**
+     * 布隆过滤器配置
+     */
+    private Bloom bloom = new Bloom();
+
+    /**
+     * 缓存值编解码配置
+     */
+    private Codec codec = new Codec();
+
+    /**
+     * 互斥锁重建配置
+     */
+    private Mutex mutex = new Mutex();
+
+    @Data
+    public static class Local {
+        /**
+         * 是否在Redis前面增加进程内一级缓存
+         */
+        private boolean enabled = true;
+        /**
+         * 一级缓存最多保存的条目数
+         */
+        private int maximumSize = 10000;
+        /**
+         * 按key前缀配置的一级缓存有效期，秒；没有配置的前缀不使用一级缓存
+         */
+        private Map<String, Long> ttl = new HashMap<>();
+        /**
+         * 空值在一级缓存中的有效期，秒
+         */
+        private long nullTtl = 5;
+    }
+
+    @Data
+    public static class Bloom {
+        /**
+         * 是否用布隆过滤器拦截不存在的商铺、笔记、用户id
+         */
+        private boolean enabled = true;
+        /**
+         * 实现方式：redis（Redis位图，各节点共享）、local（进程内，新增id通过频道广播）
+         */
+        private String type = "redis";
+        /**
+         * 每个过滤器预计的id数量，超出后误判率上升
+         */
+        private long expectedInsertions = 1000000;
+        /**
+         * 误判率
+         */
+        private double fpp = 0.01;
+        /**
+         * 从数据库重建过滤器的间隔，毫秒
+         */
+        private long rebuildInterval = 3600000;
+        /**
+         * 重建时每次从数据库读取的id数
+         */
+        private int loadBatchSize = 1000;
+    }
+
+    @Data
+    public static class Codec {
+        /**
+         * 写入格式：json、binary，读取时两种格式都支持
+         */
+        private String type = "json";
+        /**
+         * binary格式正文超过该字节数时压缩，0表示不压缩
+         */
+        private int compressThreshold = 1024;
+    }
+
+    @Data
+    public static class Mutex {
+        /**
+         * 没拿到锁时每次等待重建通知的最长时间，毫秒，超时后重新检查缓存并尝试加锁
+         */
+        private long waitTimeout = 500;
+        /**
+         * 最多等待的次数，之后直接查询数据库；等待总时长应不小于锁的有效期
+         */
+        private int maxAttempts = 20;
+    }
+}
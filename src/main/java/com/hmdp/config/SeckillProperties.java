@@ -0,0 +1,307 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 秒杀相关配置，对应 application.yaml 中的 seckill.*
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "seckill")
+public class SeckillProperties {
+
+    /**
+     * 订单消息消费配置
+     */
+    private Order order = new Order();
+
+    /**
+     * 秒杀库存配置
+     */
+    private Stock stock = new Stock();
+
+    /**
+     * 一人一单去重配置
+     */
+    private Dedup dedup = new Dedup();
+
+    /**
+     * 秒杀时间窗口配置
+     */
+    private Window window = new Window();
+
+    /**
+     * 订单id生成配置
+     */
+    private Id id = new Id();
+
+    /**
+     * 订单本地预写日志配置
+     */
+    private Wal wal = new Wal();
+
+    /**
+     * 未支付订单超时取消配置
+     */
+    private Expiry expiry = new Expiry();
+
+    @Data
+    public static class Order {
+        /**
+         * 订单队列：redis-stream、blocking、ring-buffer
+         */
+        private String queue = "redis-stream";
+        /**
+         * 进程内订单队列（blocking、ring-buffer）的容量，ring-buffer向上取整为2的幂
+         */
+        private int queueCapacity = 65536;
+        /**
+         * 进程内订单队列落库失败后的重试次数，用完后归还Redis库存和一人一单资格
+         */
+        private int writeRetries = 3;
+        /**
+         * 第一次重试前的等待时间，毫秒，之后每次翻倍
+         */
+        private long writeRetryBackoff = 200;
+        /**
+         * 是否开启批量消费，关闭时逐条消费
+         */
+        private boolean batchEnabled = false;
+        /**
+         * 每批最多读取的消息数
+         */
+        private int batchSize = 100;
+        /**
+         * 凑批最长等待时间，毫秒
+         */
+        private long maxLinger = 50;
+        /**
+         * 每个实例的消费线程数，同时也是按userId哈希的分区数
+         */
+        private int workers = 1;
+        /**
+         * 每个分区待处理任务队列的容量，队列满时读取线程阻塞
+         */
+        private int partitionQueueCapacity = 64;
+        /**
+         * pending消息恢复任务的执行间隔，毫秒
+         */
+        private long recoveryInterval = 5000;
+        /**
+         * 消息空闲超过该时间才会被认领，毫秒
+         */
+        private long recoveryMinIdle = 30000;
+        /**
+         * 最大投递次数，超过后转入死信队列
+         */
+        private int maxDeliveries = 5;
+        /**
+         * stream裁剪及积压指标的刷新间隔，毫秒
+         */
+        private long trimInterval = 1000;
+        /**
+         * 积压消息数超过该值时秒杀下单快速失败，小于等于0表示不限制
+         */
+        private long maxBacklog = 0;
+        /**
+         * 刷新订单stream登记表的间隔，毫秒
+         */
+        private long streamRefreshInterval = 5000;
+        /**
+         * 消费线程负责多个stream时，一轮逐个读取都没有消息后的等待间隔，毫秒
+         */
+        private long streamPollInterval = 100;
+        /**
+         * 清理已结束且消费完毕的优惠券stream的间隔，毫秒，优惠券结束超过该时间才会清理
+         */
+        private long streamPruneInterval = 600000;
+        /**
+         * 订单状态记录的有效期，秒，过期后查询状态时回退到数据库
+         */
+        private long statusTtl = 1800;
+        /**
+         * 查询订单状态时长轮询的最长等待时间，毫秒
+         */
+        private long statusMaxWait = 30000;
+        /**
+         * 检查长轮询订单状态的间隔，毫秒
+         */
+        private long statusCheckInterval = 200;
+    }
+
+    @Data
+    public static class Stock {
+        /**
+         * 新建秒杀券时库存拆分的分段数，1表示不分段
+         */
+        private int segments = 1;
+        /**
+         * 是否开启节点本地库存租约，只对未分段的优惠券生效
+         */
+        private boolean leaseEnabled = false;
+        /**
+         * 每次租借的库存数量
+         */
+        private int leaseChunk = 50;
+        /**
+         * 本地剩余库存低于 leaseChunk * leaseRefillRatio 时异步续租
+         */
+        private double leaseRefillRatio = 0.2;
+        /**
+         * 新建秒杀券时数据库库存拆分的行数，1表示不分桶，只使用 tb_seckill_voucher.stock
+         */
+        private int dbBuckets = 1;
+        /**
+         * 是否定时核对Redis库存与数据库库存
+         */
+        private boolean reconcileEnabled = true;
+        /**
+         * 核对间隔，毫秒
+         */
+        private long reconcileInterval = 60000;
+        /**
+         * 同时核对的优惠券数
+         */
+        private int reconcileParallelism = 4;
+        /**
+         * 是否自动修正Redis库存
+         */
+        private boolean reconcileAutoCorrect = false;
+        /**
+         * 连续多少次核对出相同的差异才自动修正，过滤核对过程中订单流转造成的瞬时差异
+         */
+        private int reconcileConfirmRuns = 3;
+        /**
+         * 定时预热进行中的秒杀券的间隔，毫秒，启动时立即执行一次
+         */
+        private long preheatInterval = 60000;
+        /**
+         * 本地售罄标记的有效期，毫秒，过期后重新执行脚本确认，避免补货前后的广播乱序导致一直售罄
+         */
+        private long soldOutTtl = 1000;
+    }
+
+    @Data
+    public static class Dedup {
+        /**
+         * 去重方式：set 使用SET保存userId；bitmap 使用位图，userId作为偏移量
+         */
+        private String mode = "set";
+        /**
+         * 位图模式下可放进位图的userId上限（不含），超过上限或非数字的userId回退到SET
+         */
+        private long bitmapMaxUserId = 100_000_000L;
+        /**
+         * 去重key在活动结束后继续保留的时间，秒
+         */
+        private long grace = 86400;
+    }
+
+    @Data
+    public static class Window {
+        /**
+         * 本地闸门允许的时钟偏差，毫秒，偏差范围内的请求交给Redis脚本按Redis时钟判断
+         */
+        private long clockSkew = 200;
+    }
+
+    @Data
+    public static class Id {
+        public static final String INCR = "incr";
+        public static final String SEGMENT = "segment";
+        public static final String SNOWFLAKE = "snowflake";
+
+        /**
+         * 默认的id生成方式：incr 每个id执行一次INCR；segment 号段模式；snowflake 本地雪花算法
+         */
+        private String mode = INCR;
+        /**
+         * 按业务前缀覆盖生成方式，例如 order: segment
+         */
+        private Map<String, String> modes = new HashMap<>();
+        /**
+         * 每次INCRBY预留的序列号数量
+         */
+        private int segmentSize = 1000;
+        /**
+         * 本段剩余量低于 segmentSize * prefetchRatio 时异步预取下一段
+         */
+        private double prefetchRatio = 0.2;
+        /**
+         * 雪花算法workerId租约的有效期，秒，每隔三分之一有效期续期一次
+         */
+        private long workerLeaseTtl = 30;
+        /**
+         * 雪花算法可等待的最大时钟回拨，毫秒，超过时拒绝生成id
+         */
+        private long maxClockBackward = 5;
+
+        /**
+         * 业务前缀使用的id生成方式
+         */
+        public String modeOf(String keyPrefix) {
+            return modes.getOrDefault(keyPrefix, mode);
+        }
+    }
+
+    @Data
+    public static class Wal {
+        /**
+         * 是否在返回秒杀结果前把订单写入本地日志，开启后Redis可以使用较弱的持久化配置
+         */
+        private boolean enabled = false;
+        /**
+         * 日志文件目录，每个实例应使用独立的目录
+         */
+        private String dir = "data/wal";
+        /**
+         * 单个日志文件大小，字节，写满后切换到新文件
+         */
+        private int segmentSize = 64 * 1024 * 1024;
+        /**
+         * 组提交刷盘间隔，毫秒，请求最多等待该时间
+         */
+        private long flushInterval = 2;
+        /**
+         * 请求等待刷盘的最长时间，毫秒，应为 flushInterval 的数倍；超时后不再等待，订单照常处理但不保证已写入日志
+         */
+        private long flushTimeout = 1000;
+        /**
+         * 清理已全部落库的日志文件的间隔，毫秒
+         */
+        private long cleanupInterval = 60000;
+    }
+
+    @Data
+    public static class Expiry {
+        /**
+         * 是否取消超时未支付的秒杀订单，取消后归还库存，用户可以重新下单
+         */
+        private boolean enabled = false;
+        /**
+         * 支付超时时间，秒，从订单落库开始计算
+         */
+        private long payTimeout = 900;
+        /**
+         * 认领到期任务的间隔，毫秒
+         */
+        private long pollInterval = 1000;
+        /**
+         * 每次认领之后多长时间内到期的任务，毫秒，应大于 pollInterval，由时间轮在到期时刻执行
+         */
+        private long prefetch = 2000;
+        /**
+         * 每次认领及每批取消的订单数
+         */
+        private int batchSize = 200;
+        /**
+         * 认领任务的处理租约，毫秒，超时未完成的任务会被重新认领
+         */
+        private long lease = 60000;
+    }
+}
@@ -11,6 +11,7 @@ import com.hmdp.entity.UserInfo;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BloomFilterManager;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
@@ -42,6 +43,9 @@ public class UserController {
     @Resource
     private IBlogService blogService;
 
+    @Resource
+    private BloomFilterManager bloomFilterManager;
+
     /**
      * 发送手机验证码
      */
@@ -96,6 +100,10 @@ public class UserController {
 
     @GetMapping("/{id}")
     public Result queryUserById(@PathVariable("id") Long userId){
+        // 布隆过滤器判断一定不存在的id不查数据库
+        if (!bloomFilterManager.mightContainId(BloomFilterManager.USER, userId)) {
+            return Result.ok();
+        }
         // 查询详情
         User user = userService.getById(userId);
         if (user == null) {
@@ -0,0 +1,48 @@
+package com.hmdp.entity;
+
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * <p>
+ * 秒杀优惠券分桶库存表，一张优惠券的库存拆成多行，总库存为各桶之和
+ * </p>
+ *
+ * @author cuiyq
+ * @since 2022-01-04
+ */
+@Data
+@EqualsAndHashCode(callSuper = false)
+@Accessors(chain = true)
+@TableName("tb_seckill_voucher_stock")
+public class SeckillVoucherStock implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 关联的优惠券的id
+     */
+    private Long voucherId;
+
+    /**
+     * 桶序号，从0开始
+     */
+    private Integer bucket;
+
+    /**
+     * 本桶库存
+     */
+    private Integer stock;
+
+    /**
+     * 更新时间
+     */
+    private LocalDateTime updateTime;
+
+
+}
@@ -3,6 +3,9 @@ package com.hmdp.mapper;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
 * @author cuiyq
@@ -13,6 +16,17 @@ import org.apache.ibatis.annotations.Mapper;
 @Mapper
 public interface IVoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 插入订单 INSERT IGNORE，依赖主键和 uk_user_voucher 唯一索引保证幂等、一人一单
+     * @return 1 插入成功，0 订单已存在
+     */
+    int insertIgnore(VoucherOrder order);
+
+    /**
+     * 批量插入订单 INSERT IGNORE ... VALUES (...),(...)
+     * @return 实际插入的行数，已存在的订单不计入
+     */
+    int insertBatch(@Param("list") List<VoucherOrder> list);
 }
 
 
@@ -0,0 +1,34 @@
+package com.hmdp.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.entity.SeckillVoucherStock;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ * <p>
+ * 秒杀优惠券分桶库存表 Mapper 接口
+ * </p>
+ *
+ * @author cuiyq
+ * @since 2022-01-04
+ */
+public interface SeckillVoucherStockMapper extends BaseMapper<SeckillVoucherStock> {
+
+    /**
+     * 批量插入各桶库存 INSERT ... VALUES (...),(...)
+     */
+    int insertBatch(@Param("list") List<SeckillVoucherStock> list);
+
+    /**
+     * 扣减一个桶的库存 UPDATE ... SET stock = stock - count WHERE voucher_id = ? AND bucket = ? AND stock >= count
+     * @return 1 扣减成功，0 本桶库存不足
+     */
+    int deduct(@Param("voucherId") Long voucherId, @Param("bucket") int bucket, @Param("count") int count);
+
+    /**
+     * 加锁读取一个桶的库存 SELECT stock ... WHERE ... AND stock > 0 FOR UPDATE，桶不存在或没有库存时返回null
+     */
+    Integer lockStock(@Param("voucherId") Long voucherId, @Param("bucket") int bucket);
+}
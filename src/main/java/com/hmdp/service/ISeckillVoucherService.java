@@ -13,4 +13,31 @@ import com.hmdp.entity.SeckillVoucher;
  */
 public interface ISeckillVoucherService extends IService<SeckillVoucher> {
 
+    /**
+     * 按配置的桶数初始化数据库库存，桶数为1时只使用 tb_seckill_voucher.stock
+     * @param voucherId 优惠券id
+     * @param stock 总库存
+     */
+    void initStock(Long voucherId, int stock);
+
+    /**
+     * 扣减数据库库存，分桶的优惠券按 bucketKey 选择桶，本桶不足时从0号桶开始按桶序号升序从各桶扣减
+     * @param voucherId 优惠券id
+     * @param bucketKey 选择桶的依据，一般为订单id
+     * @param count 扣减数量
+     * @return 库存是否足够，分桶时只有各桶库存之和不足才返回false
+     */
+    boolean deductStock(Long voucherId, Long bucketKey, int count);
+
+    /**
+     * 增加数据库库存，分桶的优惠券平均加到各个桶上
+     * @return 优惠券是否存在
+     */
+    boolean addStock(Long voucherId, int count);
+
+    /**
+     * 查询数据库中的当前库存，分桶的优惠券为各桶之和
+     * @return 优惠券不存在时返回null
+     */
+    Integer queryStock(Long voucherId);
 }
@@ -3,9 +3,11 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpSession;
+import java.util.List;
 
 /**
  * <p>
@@ -34,4 +36,11 @@ public interface IUserService extends IService<User> {
      * @return
      */
     Result signCount();
+
+    /**
+     * 按id批量查询用户，优先从缓存读取
+     * @param ids 用户id
+     * @return 与ids顺序一致，不存在的用户不在结果中
+     */
+    List<UserDTO> queryUserDTOs(List<Long> ids);
 }
@@ -4,6 +4,9 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+import java.util.Set;
+
 /**
 * @author cuiyq
 * @description 针对表【tb_voucher_order】的数据库操作Service
@@ -13,4 +16,33 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
 
 
     Result createVoucherOrder(Long voucherId);
+
+    /**
+     * 创建订单：插入订单，插入成功才扣减库存，在同一个事务中完成
+     * 订单已存在（重复投递或重复下单）时什么也不做，库存不足时抛出异常并回滚
+     * @return 是否创建了新订单
+     */
+    boolean createVoucherOrderIfAbsent(VoucherOrder order);
+
+    /**
+     * 批量创建订单：按优惠券聚合扣减库存，多行插入订单，在同一个事务中完成，任一优惠券库存不足时抛出异常并回滚整批
+     * @param orders 订单列表
+     * @return 实际写入的订单数
+     */
+    int createVoucherOrderBatch(List<VoucherOrder> orders);
+
+    /**
+     * 批量取消仍未支付的订单并归还数据库库存，在同一个事务中完成
+     * 取消后的订单不再占用一人一单唯一索引，用户可以重新下单
+     * @param orderIds 订单id
+     * @return 实际取消的订单，已支付或不存在的订单不在其中
+     */
+    List<VoucherOrder> cancelUnpaidOrders(List<Long> orderIds);
+
+    /**
+     * 查询已经落库的订单，id、用户、优惠券都一致才算，用于区分重复投递与一人一单冲突、id冲突
+     * @param orders 订单列表
+     * @return 已落库的订单id
+     */
+    Set<Long> queryCreatedIds(List<VoucherOrder> orders);
 }
@@ -3,6 +3,7 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
+import org.springframework.web.context.request.async.DeferredResult;
 
 /**
  * <p>
@@ -19,4 +20,8 @@ public interface IVoucherService extends IService<Voucher> {
     void addSeckillVoucher(Voucher voucher);
 
     Result seckillVoucher(Long voucherId);
+
+    Result restockSeckillVoucher(Long voucherId, Integer count);
+
+    DeferredResult<Result> queryOrderStatus(Long orderId, long wait);
 }
@@ -0,0 +1,32 @@
+package com.hmdp.service;
+
+/**
+ * 秒杀订单队列，秒杀成功的订单通过它交给后台线程异步落库
+ * <p>
+ * 由 seckill.order.queue 选择实现：
+ * redis-stream 订单由秒杀脚本直接写入Redis stream，可靠、可跨实例消费；
+ * blocking 进程内有界阻塞队列；
+ * ring-buffer 进程内预分配槽位的环形队列，批量消费。
+ * 进程内的两种实现在进程退出时会丢失未落库的订单
+ */
+public interface OrderQueue {
+
+    String REDIS_STREAM = "redis-stream";
+    String BLOCKING = "blocking";
+    String RING_BUFFER = "ring-buffer";
+
+    /**
+     * 秒杀脚本是否在扣减库存的同时把订单写入队列，为true时不需要再调用 publish
+     */
+    boolean enqueuedByScript();
+
+    /**
+     * 队列是否还有空间，秒杀脚本执行前调用，队列已满时直接拒绝请求
+     */
+    boolean hasCapacity();
+
+    /**
+     * 投递订单，队列已满时阻塞等待；Redis stream模式下用于补发订单
+     */
+    void publish(Long orderId, Long userId, Long voucherId);
+}
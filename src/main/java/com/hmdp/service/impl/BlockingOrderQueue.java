@@ -0,0 +1,96 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.OrderQueue;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 进程内有界阻塞队列，秒杀成功后把订单放入队列，单个消费线程批量取出落库
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "seckill.order", name = "queue", havingValue = OrderQueue.BLOCKING)
+public class BlockingOrderQueue implements OrderQueue {
+
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private VoucherOrderWriter voucherOrderWriter;
+
+    //    开启阻塞队列
+    private BlockingQueue<VoucherOrder> orderTasks;
+
+    private static final ExecutorService SECKILL_ORDER_EXECUTOR =
+            Executors.newSingleThreadExecutor(new NamedThreadFactory("seckill-order-blocking-", false));
+
+    @Override
+    public boolean enqueuedByScript() {
+        return false;
+    }
+
+    @Override
+    public boolean hasCapacity() {
+        return orderTasks.remainingCapacity() > 0;
+    }
+
+    @Override
+    public void publish(Long orderId, Long userId, Long voucherId) {
+        VoucherOrder voucherOrder = new VoucherOrder();
+        voucherOrder.setId(orderId);
+        voucherOrder.setUserId(userId);
+        voucherOrder.setVoucherId(voucherId);
+        try {
+            orderTasks.put(voucherOrder);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("投递订单被中断", e);
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        orderTasks = new ArrayBlockingQueue<>(seckillProperties.getOrder().getQueueCapacity());
+        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+    }
+
+    // 用于线程池处理的任务
+    // 当初始化完毕后，就会去从对列中去拿信息
+    private class VoucherOrderHandler implements Runnable {
+
+        @Override
+        public void run() {
+            SeckillProperties.Order config = seckillProperties.getOrder();
+            int batchSize = config.isBatchEnabled() ? config.getBatchSize() : 1;
+            List<VoucherOrder> batch = new ArrayList<>(batchSize);
+            while (true) {
+                try {
+                    //1.从队列中获取订单信息，没有订单时阻塞，之后一次取出已有的订单
+                    batch.add(orderTasks.take());
+                    orderTasks.drainTo(batch, batchSize - 1);
+                    //2.创建订单，失败时退避重试，重试用完后归还Redis库存和一人一单资格
+                    voucherOrderWriter.writeOrRelease(batch);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    log.error("处理订单异常", e);
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+    }
+}
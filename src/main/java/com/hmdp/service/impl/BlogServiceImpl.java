@@ -1,6 +1,5 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
@@ -15,6 +14,7 @@ import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BloomFilterManager;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import jodd.util.StringUtil;
@@ -51,6 +51,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private IFollowService followService;
 
+    @Resource
+    private BloomFilterManager bloomFilterManager;
+
     /**
      * 点赞排行榜
      *
@@ -67,13 +70,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         }
         // 2.解析出其中的用户id
         List<Long> ids = top5.stream().map(Long::valueOf).collect(Collectors.toList());
-        String idStr = StrUtil.join(",", ids);
-        // 3.根据用户id查询用户 WHERE id IN ( 5 , 1 ) ORDER BY FIELD(id, 5, 1)
-        List<UserDTO> userDTOS = userService.query()
-                .in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list()
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
+        // 3.根据用户id批量查询用户，结果与点赞顺序一致
+        List<UserDTO> userDTOS = userService.queryUserDTOs(ids);
         // 4.返回
         return Result.ok(userDTOS);
     }
@@ -109,7 +107,10 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
      */
     @Override
     public Result queryBlogById(Long id) {
-        // 1.查询blog
+        // 1.查询blog，布隆过滤器判断一定不存在的id不查数据库
+        if (!bloomFilterManager.mightContainId(BloomFilterManager.BLOG, id)) {
+            return Result.fail("笔记不存在！");
+        }
         Blog blog = getById(id);
         if (blog == null) {
             return Result.fail("笔记不存在！");
@@ -178,6 +179,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if (!save) {
             return Result.fail("笔记保存失败！");
         }
+        bloomFilterManager.add(BloomFilterManager.BLOG, blog.getId());
         //3.查询笔记作者所有粉丝 select * from tb_follow where follow_user_id = 1010;
         List<Follow> followUserIds = followService.query().eq("follow_user_id", user.getId()).list();
         //4.推送笔记id给所有粉丝
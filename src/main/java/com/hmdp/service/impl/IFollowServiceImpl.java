@@ -1,6 +1,5 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
@@ -104,9 +103,8 @@ public class IFollowServiceImpl extends ServiceImpl<TbFollowMapper, Follow>
         }
 //        3.解析id
         List<Long> ids = intersect.stream().map(Long::valueOf).collect(Collectors.toList());
- //        4.查询用户 转换成dto
-        List<UserDTO> userDTOS = userService.listByIds(ids).stream().map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
+ //        4.批量查询用户dto
+        List<UserDTO> userDTOS = userService.queryUserDTOs(ids);
         return Result.ok(userDTOS);
     }
 }
@@ -3,9 +3,16 @@ package com.hmdp.service.impl;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.hmdp.mapper.IVoucherOrderMapper;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.stream.Collectors;
 
 /**
 * @author cuiyq
@@ -16,12 +23,111 @@ import org.springframework.stereotype.Service;
 public class IVoucherOrderServiceImpl extends ServiceImpl<IVoucherOrderMapper, VoucherOrder>
     implements IVoucherOrderService {
 
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
     @Override
     public Result createVoucherOrder(Long voucherId) {
         return null;
     }
-}
 
+    @Override
+    @Transactional(isolation = Isolation.READ_COMMITTED)
+    public boolean createVoucherOrderIfAbsent(VoucherOrder order) {
+        // 1.一人一单：唯一索引冲突时不插入，不再先查询
+        if (getBaseMapper().insertIgnore(order) == 0) {
+            log.error("用户已经购买过一次！");
+            return false;
+        }
+        // 2.扣减库存，分桶的优惠券按订单id选择桶；库存不足时抛出异常回滚订单，数据库中的订单数不能超过库存
+        // READ COMMITTED下本桶条件更新失败不保留行锁，分桶扣减按桶序号升序加锁
+        boolean success = seckillVoucherService.deductStock(order.getVoucherId(), order.getId(), 1);
+        if (!success) {
+            throw new IllegalStateException("库存不足，优惠券:" + order.getVoucherId());
+        }
+        return true;
+    }
 
+    @Override
+    @Transactional(isolation = Isolation.READ_COMMITTED)
+    public int createVoucherOrderBatch(List<VoucherOrder> orders) {
+        if (orders == null || orders.isEmpty()) {
+            return 0;
+        }
+        // 1.一人一单：批内去重
+        Map<String, VoucherOrder> unique = new LinkedHashMap<>(orders.size());
+        for (VoucherOrder order : orders) {
+            unique.putIfAbsent(order.getUserId() + ":" + order.getVoucherId(), order);
+        }
+        // 2.按优惠券分组，每组一条多行INSERT IGNORE，已存在的订单由唯一索引过滤
+        // 按优惠券id升序处理，并发的批次以相同顺序锁库存行
+        Map<Long, List<VoucherOrder>> groups = unique.values().stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, TreeMap::new, Collectors.toList()));
+        int total = 0;
+        for (Map.Entry<Long, List<VoucherOrder>> entry : groups.entrySet()) {
+            int inserted = getBaseMapper().insertBatch(entry.getValue());
+            if (inserted < entry.getValue().size()) {
+                log.error("用户已经购买过一次！忽略" + (entry.getValue().size() - inserted) + "条重复订单");
+            }
+            if (inserted == 0) {
+                continue;
+            }
+            // 3.按实际插入的行数聚合扣减库存 stock = stock - k，分桶的优惠券按本组第一个订单id选择桶
+            // 库存不足时抛出异常回滚整批，由调用方逐个重试
+            boolean success = seckillVoucherService.deductStock(entry.getKey(), entry.getValue().get(0).getId(), inserted);
+            if (!success) {
+                throw new IllegalStateException("库存不足，优惠券:" + entry.getKey());
+            }
+            total += inserted;
+        }
+        return total;
+    }
 
+    @Override
+    @Transactional
+    public List<VoucherOrder> cancelUnpaidOrders(List<Long> orderIds) {
+        if (orderIds == null || orderIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // 1.锁定仍未支付的订单，支付与取消互斥 SELECT ... WHERE id IN (...) AND status = 1 FOR UPDATE
+        List<VoucherOrder> unpaid = query()
+                .in("id", orderIds)
+                .eq("status", 1)
+                .last("FOR UPDATE")
+                .list();
+        if (unpaid.isEmpty()) {
+            return unpaid;
+        }
+        // 2.取消订单，active置为NULL后不再参与 uk_user_voucher 唯一约束
+        update().setSql("status = 4, active = NULL")
+                .in("id", unpaid.stream().map(VoucherOrder::getId).collect(Collectors.toList()))
+                .eq("status", 1)
+                .update();
+        // 3.按优惠券聚合归还库存 stock = stock + k
+        unpaid.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()))
+                .forEach((voucherId, count) -> seckillVoucherService.addStock(voucherId, count.intValue()));
+        return unpaid;
+    }
 
+    @Override
+    public Set<Long> queryCreatedIds(List<VoucherOrder> orders) {
+        if (orders == null || orders.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Map<Long, VoucherOrder> expected = new HashMap<>(orders.size());
+        for (VoucherOrder order : orders) {
+            expected.put(order.getId(), order);
+        }
+        // SELECT id, user_id, voucher_id FROM tb_voucher_order WHERE id IN (...)
+        return query().select("id", "user_id", "voucher_id")
+                .in("id", expected.keySet())
+                .list().stream()
+                .filter(row -> {
+                    VoucherOrder order = expected.get(row.getId());
+                    return order.getUserId().equals(row.getUserId()) && order.getVoucherId().equals(row.getVoucherId());
+                })
+                .map(VoucherOrder::getId)
+                .collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,258 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
+import cn.hutool.core.util.RuntimeUtil;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.OrderQueue;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillKeys;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Redis stream订单队列
+ * <p>
+ * 订单由秒杀脚本 XADD 到 stream.orders:{voucherId}，这里的读取线程通过消费者组读取，
+ * 按userId分发到分区线程落库后XACK；处理失败的消息留在pending-list中，由 VoucherOrderRecovery 通过XAUTOCLAIM重新投递
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "seckill.order", name = "queue", havingValue = OrderQueue.REDIS_STREAM, matchIfMissing = true)
+public class RedisStreamOrderQueue implements OrderQueue {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private VoucherOrderStreamRegistry voucherOrderStreamRegistry;
+    @Resource
+    private VoucherOrderWriter voucherOrderWriter;
+
+    // 补发订单消息，stream不存在时先创建消费者组
+    private static final DefaultRedisScript<Long> PUBLISH_SCRIPT = SeckillStockDispatcher.orderScript("order-publish.lua");
+
+    //    读取消息的线程池，每个线程都是消费者组中一个独立的消费者
+    private ExecutorService seckillOrderExecutor;
+    //    按userId哈希分区的写库线程，同一用户的订单总是在同一个线程里串行处理
+    private ThreadPoolExecutor[] orderPartitions;
+
+    @Override
+    public boolean enqueuedByScript() {
+        return true;
+    }
+
+    @Override
+    public boolean hasCapacity() {
+        // 积压由 VoucherOrderStreamMonitor 按优惠券判断
+        return true;
+    }
+
+    /**
+     * 秒杀时订单由脚本写入，这里只用于补发订单（例如WAL回放），由 order-publish.lua 执行 XADD stream.orders:{voucherId} * userId u voucherId v id o
+     */
+    @Override
+    public void publish(Long orderId, Long userId, Long voucherId) {
+        String streamKey = SeckillKeys.streamKey(voucherId);
+        voucherOrderStreamRegistry.register(streamKey);
+        // stream可能在登记之后被清理，由脚本在写入前确认消费者组存在
+        stringRedisTemplate.execute(PUBLISH_SCRIPT, Collections.singletonList(streamKey),
+                userId.toString(), voucherId.toString(), orderId.toString());
+    }
+
+    //    在类初始化之后执行，因为当这个类初始化好了之后，随时都是有可能要执行的
+    @PostConstruct
+    public void init() {
+        // 1.消费者组由 VoucherOrderStreamRegistry 在登记stream时创建
+        // 2.创建分区写库线程，队列满时阻塞读取线程，形成背压
+        int workers = seckillProperties.getOrder().getWorkers();
+        orderPartitions = new ThreadPoolExecutor[workers];
+        for (int i = 0; i < workers; i++) {
+            orderPartitions[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(seckillProperties.getOrder().getPartitionQueueCapacity()),
+                    new NamedThreadFactory("seckill-order-partition-" + i + "-", false),
+                    (r, executor) -> {
+                        try {
+                            executor.getQueue().put(r);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException(e);
+                        }
+                    });
+        }
+        // 3.启动读取线程，消费者名称为 主机名-进程号-序号，保证集群内唯一
+        seckillOrderExecutor = Executors.newFixedThreadPool(workers, new NamedThreadFactory("seckill-order-consumer-", false));
+        String consumerPrefix = NetUtil.getLocalHostName() + "-" + RuntimeUtil.getPid();
+        for (int i = 0; i < workers; i++) {
+            seckillOrderExecutor.submit(new VoucherOrderHandler(consumerPrefix + "-" + i, i, workers));
+        }
+    }
+
+    // 用于线程池处理的任务
+    // 当初始化完毕后，就会去从对列中去拿信息，按userId分发到分区线程
+    public class VoucherOrderHandler implements Runnable {
+
+        private final Consumer consumer;
+        // 本线程在 workers 个读取线程中的序号，按序号分配负责的订单stream
+        private final int index;
+        private final int workers;
+        // 轮流读取多个stream时的起始位置
+        private int cursor;
+
+        public VoucherOrderHandler(String consumerName, int index, int workers) {
+            this.consumer = Consumer.from(RedisConstants.SECKILL_ORDER_GROUP, consumerName);
+            this.index = index;
+            this.workers = workers;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    // 1.获取消息队列中的订单信息 XREADGROUP GROUP g1 host-pid-i COUNT n [BLOCK 2000] STREAMS s >
+                    List<MapRecord<String, Object, Object>> list = readBatch();
+//                    2.判断订单信息是否为空
+                    if (list.isEmpty()) {
+                        //如果为空，说明队列中没有信息，直接返回
+                        continue;
+                    }
+//                    3.按userId分发到分区线程
+                    dispatchOrders(list);
+                } catch (Exception e) {
+                    log.error("处理订单异常", e);
+                }
+            }
+        }
+
+        /**
+         * 读取一批消息，没有消息时最多等待2秒，批量模式下读到第一条消息后在maxLinger内尽量凑满batchSize
+         * <p>
+         * 各优惠券的stream哈希标签不同，在Redis Cluster中不在同一个slot，不能放在一个XREADGROUP中，
+         * 因此每个stream单独读取后合并：只负责一个stream时阻塞读取，负责多个时逐个非阻塞读取，一轮都没有消息再等待 streamPollInterval
+         */
+        private List<MapRecord<String, Object, Object>> readBatch() throws InterruptedException {
+            SeckillProperties.Order config = seckillProperties.getOrder();
+            int batchSize = config.isBatchEnabled() ? config.getBatchSize() : 1;
+            List<MapRecord<String, Object, Object>> batch = new ArrayList<>(batchSize);
+            // 每轮重新获取，新登记的优惠券stream无需重启即可被消费
+            List<String> streams = voucherOrderStreamRegistry.streamsOf(index, workers);
+            if (streams.isEmpty()) {
+                Thread.sleep(2000);
+                return batch;
+            }
+            long deadline = System.currentTimeMillis() + 2000;
+            while (batch.size() < batchSize) {
+                long remaining = deadline - System.currentTimeMillis();
+                // BLOCK 0 表示无限等待，这里必须提前退出
+                if (remaining <= 0) {
+                    break;
+                }
+                boolean first = batch.isEmpty();
+                if (streams.size() == 1) {
+                    List<MapRecord<String, Object, Object>> list = read(streams.get(0), batchSize - batch.size(), remaining);
+                    if (list.isEmpty()) {
+                        break;
+                    }
+                    batch.addAll(list);
+                } else {
+                    int before = batch.size();
+                    readEach(streams, batchSize, batch);
+                    if (batch.size() == before) {
+                        Thread.sleep(Math.min(remaining, config.getStreamPollInterval()));
+                        continue;
+                    }
+                }
+                if (first) {
+                    deadline = System.currentTimeMillis() + config.getMaxLinger();
+                }
+            }
+            return batch;
+        }
+
+        /**
+         * 逐个非阻塞读取，每轮从下一个stream开始，避免排在前面的stream一直优先；单个stream读取失败不影响其他stream
+         */
+        private void readEach(List<String> streams, int batchSize, List<MapRecord<String, Object, Object>> batch) {
+            int start = Math.floorMod(cursor++, streams.size());
+            for (int i = 0; i < streams.size() && batch.size() < batchSize; i++) {
+                String stream = streams.get((start + i) % streams.size());
+                try {
+                    batch.addAll(read(stream, batchSize - batch.size(), 0));
+                } catch (Exception e) {
+                    log.warn("读取订单stream{}异常:{}", stream, e.getMessage());
+                }
+            }
+        }
+
+        /**
+         * 读取一个stream，block小于等于0时不阻塞
+         */
+        private List<MapRecord<String, Object, Object>> read(String stream, int count, long block) {
+            StreamReadOptions options = StreamReadOptions.empty().count(count);
+            if (block > 0) {
+                options = options.block(Duration.ofMillis(block));
+            }
+            List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream()
+                    .read(consumer, options, StreamOffset.create(stream, ReadOffset.lastConsumed()));
+            return list == null ? Collections.emptyList() : list;
+        }
+    }
+
+    /**
+     * 按userId哈希把订单消息分发到分区线程，创建订单成功后确认消息
+     * 失败时只记录日志，消息留在pending-list中等待重新投递
+     */
+    public void dispatchOrders(List<MapRecord<String, Object, Object>> records) {
+        Map<Integer, List<MapRecord<String, Object, Object>>> partitions = new HashMap<>();
+        for (MapRecord<String, Object, Object> record : records) {
+            int p = partitionOf(record.getValue().get("userId"));
+            partitions.computeIfAbsent(p, k -> new ArrayList<>()).add(record);
+        }
+        partitions.forEach((p, list) -> orderPartitions[p].execute(() -> {
+            try {
+                handleRecords(list);
+            } catch (Exception e) {
+                log.error("处理订单异常", e);
+            }
+        }));
+    }
+
+    private int partitionOf(Object userId) {
+        return (String.valueOf(userId).hashCode() & Integer.MAX_VALUE) % orderPartitions.length;
+    }
+
+    /**
+     * 在分区线程中创建订单并确认消息
+     */
+    private void handleRecords(List<MapRecord<String, Object, Object>> records) {
+//        1.解析数据，消息id按所在stream分组
+        List<VoucherOrder> orders = new ArrayList<>(records.size());
+        Map<String, List<RecordId>> ids = new HashMap<>();
+        for (MapRecord<String, Object, Object> entries : records) {
+            orders.add(BeanUtil.fillBeanWithMap(entries.getValue(), new VoucherOrder(), false));
+            ids.computeIfAbsent(entries.getStream(), k -> new ArrayList<>()).add(entries.getId());
+        }
+//        2.创建订单
+        voucherOrderWriter.write(orders);
+//        3.确认消息 XACK stream.orders:{voucherId} g1 id1 id2 ...
+        ids.forEach((stream, list) -> stringRedisTemplate.opsForStream()
+                .acknowledge(stream, RedisConstants.SECKILL_ORDER_GROUP, list.toArray(new RecordId[0])));
+    }
+}
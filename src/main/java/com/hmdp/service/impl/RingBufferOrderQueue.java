@@ -0,0 +1,148 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.OrderQueue;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 进程内环形队列（Disruptor风格）
+ * <p>
+ * 启动时按容量预分配 VoucherOrder 槽位，投递时只把三个id写进槽位，不创建对象：
+ * 1.生产者用CAS认领下一个序号，写入 序号 & mask 对应的槽位，再在 published 中标记该序号已发布；
+ * 2.单个消费线程从已消费序号往后找出连续已发布的一段（最多 batchSize 个），直接把这些槽位交给批量处理，
+ * 处理完成后才推进已消费序号，生产者不会覆盖正在处理的槽位；
+ * 3.队列满时生产者自旋等待消费者推进
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "seckill.order", name = "queue", havingValue = OrderQueue.RING_BUFFER)
+public class RingBufferOrderQueue implements OrderQueue {
+
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private VoucherOrderWriter voucherOrderWriter;
+
+    private static final ExecutorService SECKILL_ORDER_EXECUTOR =
+            Executors.newSingleThreadExecutor(new NamedThreadFactory("seckill-order-ring-", false));
+
+    // 消费线程没有订单可处理时的等待时间
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private VoucherOrder[] slots;
+    // 每个槽位最后发布的序号
+    private AtomicLongArray published;
+    private int mask;
+    // 生产者已认领的最大序号
+    private final AtomicLong claimed = new AtomicLong(-1);
+    // 消费者已处理完的最大序号
+    private final AtomicLong consumed = new AtomicLong(-1);
+
+    @Override
+    public boolean enqueuedByScript() {
+        return false;
+    }
+
+    @Override
+    public boolean hasCapacity() {
+        return claimed.get() - consumed.get() < slots.length;
+    }
+
+    @Override
+    public void publish(Long orderId, Long userId, Long voucherId) {
+        // 1.认领序号，队列满时等待消费者推进
+        long sequence;
+        while (true) {
+            long current = claimed.get();
+            sequence = current + 1;
+            if (sequence - slots.length > consumed.get()) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            if (claimed.compareAndSet(current, sequence)) {
+                break;
+            }
+        }
+        // 2.写入预分配的槽位
+        int index = (int) (sequence & mask);
+        VoucherOrder slot = slots[index];
+        slot.setId(orderId);
+        slot.setUserId(userId);
+        slot.setVoucherId(voucherId);
+        // 3.发布，消费者看到序号后才会读取槽位
+        published.set(index, sequence);
+    }
+
+    @PostConstruct
+    public void init() {
+        // 容量向上取整为2的幂，序号 & mask 即为槽位下标
+        int capacity = Integer.highestOneBit(Math.max(2, seckillProperties.getOrder().getQueueCapacity() - 1)) << 1;
+        slots = new VoucherOrder[capacity];
+        published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new VoucherOrder();
+            published.set(i, -1);
+        }
+        mask = capacity - 1;
+        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+    }
+
+    // 批量处理已发布的订单
+    private class VoucherOrderHandler implements Runnable {
+
+        @Override
+        public void run() {
+            SeckillProperties.Order config = seckillProperties.getOrder();
+            int batchSize = config.isBatchEnabled() ? config.getBatchSize() : 1;
+            while (!Thread.currentThread().isInterrupted()) {
+                // 1.找出从 consumed + 1 开始连续已发布的序号
+                long from = consumed.get() + 1;
+                long to = from;
+                while (to - from < batchSize && published.get((int) (to & mask)) == to) {
+                    to++;
+                }
+                if (to == from) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    continue;
+                }
+                // 2.直接处理槽位中的订单，不复制
+                List<VoucherOrder> batch = slice(from, to);
+                // 失败时退避重试，重试用完后归还Redis库存和一人一单资格，不会永久占用库存
+                voucherOrderWriter.writeOrRelease(batch);
+                // 3.推进已消费序号，槽位可以被重新使用
+                consumed.set(to - 1);
+            }
+        }
+
+        /**
+         * 序号 [from, to) 对应的槽位，跨越数组末尾时分两段拼接
+         */
+        private List<VoucherOrder> slice(long from, long to) {
+            int start = (int) (from & mask);
+            int end = (int) ((to - 1) & mask) + 1;
+            if (start < end) {
+                return Arrays.asList(slots).subList(start, end);
+            }
+            VoucherOrder[] batch = new VoucherOrder[(int) (to - from)];
+            int head = slots.length - start;
+            System.arraycopy(slots, start, batch, 0, head);
+            System.arraycopy(slots, 0, batch, head, end);
+            return Arrays.asList(batch);
+        }
+    }
+}
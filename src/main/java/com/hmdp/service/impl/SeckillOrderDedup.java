@@ -0,0 +1,63 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.service.ISeckillVoucherService;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 一人一单去重参数
+ * <p>
+ * 秒杀脚本根据这里给出的参数选择去重方式：
+ * set 模式把userId保存在 seckill:order:{voucherId} 中；
+ * bitmap 模式把 userId 作为偏移量写入 seckill:buyers:{voucherId}，100万个稠密userId只需约122KB，
+ * 非数字或超过 bitmapMaxUserId 的userId仍回退到SET，避免稀疏的大id把位图撑大。
+ * 两种key都在活动结束时间 + grace 后过期。
+ */
+@Component
+public class SeckillOrderDedup {
+
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    // 优惠券去重key的过期时间戳（秒），0表示不过期
+    private final Map<Long, Long> expireAtCache = new ConcurrentHashMap<>();
+
+    /**
+     * 初始化库存时调用，活动时间变化后重新计算过期时间
+     */
+    public void reset(Long voucherId, LocalDateTime endTime) {
+        expireAtCache.put(voucherId, expireAtOf(endTime));
+    }
+
+    /**
+     * 追加到秒杀脚本ARGV中的去重参数：去重方式、位图userId上限、过期时间戳
+     */
+    public String[] args(Long voucherId) {
+        SeckillProperties.Dedup config = seckillProperties.getDedup();
+        long expireAt = expireAtCache.computeIfAbsent(voucherId, id -> {
+            SeckillVoucher voucher = seckillVoucherService.getById(id);
+            return expireAtOf(voucher == null ? null : voucher.getEndTime());
+        });
+        return new String[]{
+                config.getMode(),
+                String.valueOf(config.getBitmapMaxUserId()),
+                String.valueOf(expireAt)
+        };
+    }
+
+    private long expireAtOf(LocalDateTime endTime) {
+        if (endTime == null) {
+            return 0;
+        }
+        return endTime.atZone(ZoneId.systemDefault()).toEpochSecond() + seckillProperties.getDedup().getGrace();
+    }
+}
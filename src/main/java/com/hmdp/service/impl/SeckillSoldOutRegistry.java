@@ -0,0 +1,100 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.utils.RedisConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 本地售罄标记
+ * <p>
+ * 秒杀脚本返回库存不足后在本地标记售罄，之后的请求不再执行脚本；
+ * 标记和清除都通过Redis频道 seckill:soldout 广播到其他节点，
+ * 消息格式：1:{voucherId} 售罄，0:{voucherId} 补货后清除
+ * <p>
+ * 补货前执行的脚本返回库存不足，它的售罄广播可能晚于补货的清除广播到达，
+ * 所以标记只在 seckill.stock.sold-out-ttl 内有效，过期后由下一个请求重新执行脚本确认，
+ * 仍然售罄时会再次标记；收到补货广播时同时清除本地缓存的时间窗口和优惠券不存在的记录
+ */
+@Slf4j
+@Component
+public class SeckillSoldOutRegistry {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private SeckillWindowGate seckillWindowGate;
+    @Resource
+    private SeckillStockPreheater seckillStockPreheater;
+
+    // voucherId -> 标记时间
+    private final ConcurrentHashMap<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            int i = body.indexOf(':');
+            if (i < 0) {
+                return;
+            }
+            Long voucherId = Long.valueOf(body.substring(i + 1));
+            if ("1".equals(body.substring(0, i))) {
+                soldOut.putIfAbsent(voucherId, System.currentTimeMillis());
+            } else {
+                soldOut.remove(voucherId);
+                seckillWindowGate.invalidate(voucherId);
+                seckillStockPreheater.forgetAbsent(voucherId);
+            }
+        }, new ChannelTopic(RedisConstants.SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    public boolean isSoldOut(Long voucherId) {
+        Long markedAt = soldOut.get(voucherId);
+        if (markedAt == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() - markedAt < seckillProperties.getStock().getSoldOutTtl()) {
+            return true;
+        }
+        // 标记过期，清除后交给脚本重新确认
+        soldOut.remove(voucherId, markedAt);
+        return false;
+    }
+
+    /**
+     * 标记售罄并广播，有效期内已标记过的不重复广播
+     */
+    public void markSoldOut(Long voucherId) {
+        long now = System.currentTimeMillis();
+        Long markedAt = soldOut.putIfAbsent(voucherId, now);
+        if (markedAt != null && now - markedAt < seckillProperties.getStock().getSoldOutTtl()) {
+            return;
+        }
+        soldOut.put(voucherId, now);
+        log.debug("优惠券{}已售罄", voucherId);
+        stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_SOLD_OUT_CHANNEL, "1:" + voucherId);
+    }
+
+    /**
+     * 补货后清除售罄标记并广播
+     */
+    public void reset(Long voucherId) {
+        soldOut.remove(voucherId);
+        seckillWindowGate.invalidate(voucherId);
+        seckillStockPreheater.forgetAbsent(voucherId);
+        stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_SOLD_OUT_CHANNEL, "0:" + voucherId);
+    }
+}
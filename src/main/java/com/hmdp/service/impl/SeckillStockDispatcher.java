@@ -0,0 +1,261 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.io.resource.ResourceUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.service.OrderQueue;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillKeys;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 秒杀库存扣减的调度入口
+ * <p>
+ * 未分段的优惠券直接执行 seckill.lua；
+ * 分段的优惠券库存拆在 seckill:stock:{voucherId:i} 多个key上，每个分段有自己的订单stream，按userId哈希选出本段，
+ * 本段库存不足时依次向兄弟分段借库存，每次扣减都在单个key上原子完成，不会超卖；
+ * 开启库存租约时，未分段的优惠券交给 SeckillStockLeaseManager 在本地扣减；
+ * 其余情况先查本地售罄标记，已售罄的优惠券不再执行脚本
+ */
+@Slf4j
+@Component
+public class SeckillStockDispatcher {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private SeckillStockLeaseManager seckillStockLeaseManager;
+    @Resource
+    private SeckillSoldOutRegistry seckillSoldOutRegistry;
+    @Resource
+    private VoucherOrderStreamRegistry voucherOrderStreamRegistry;
+    @Resource
+    private SeckillOrderDedup seckillOrderDedup;
+    @Resource
+    private OrderQueue orderQueue;
+    @Resource
+    private SeckillWindowGate seckillWindowGate;
+    @Resource
+    private SeckillStockPreheater seckillStockPreheater;
+
+    //    调用脚本
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    private static final DefaultRedisScript<Long> SEGMENT_SCRIPT;
+    private static final DefaultRedisScript<Long> BORROW_SCRIPT;
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+
+    static {
+        SECKILL_SCRIPT = orderScript("seckill.lua"); //指定脚本位置名字
+        SEGMENT_SCRIPT = orderScript("seckill-segment.lua");
+        BORROW_SCRIPT = new DefaultRedisScript<>();
+        BORROW_SCRIPT.setLocation(new ClassPathResource("seckill-borrow.lua"));
+        BORROW_SCRIPT.setResultType(Long.class);
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("seckill-release.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 下单脚本，拼接在 seckill-order.lua 之后，共用其中的时间窗口校验、一人一单去重和发送订单消息
+     */
+    static DefaultRedisScript<Long> orderScript(String location) {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setScriptText(ResourceUtil.readUtf8Str("seckill-order.lua") + ResourceUtil.readUtf8Str(location));
+        script.setResultType(Long.class);
+        return script;
+    }
+
+    // 优惠券的分段数，1表示未分段
+    private final Map<Long, Integer> segmentsCache = new ConcurrentHashMap<>();
+
+    /**
+     * 初始化Redis中的秒杀库存，按配置的分段数拆分，余数分给前几个分段，并登记订单stream、时间窗口
+     */
+    public void initStock(SeckillVoucher seckillVoucher) {
+        Long voucherId = seckillVoucher.getVoucherId();
+        int stock = seckillVoucher.getStock();
+        int segments = Math.max(1, seckillProperties.getStock().getSegments());
+        // 去重key按活动结束时间过期
+        seckillOrderDedup.reset(voucherId, seckillVoucher.getEndTime());
+        seckillWindowGate.init(voucherId, seckillVoucher.getBeginTime(), seckillVoucher.getEndTime(), segments);
+        if (segments == 1) {
+            stringRedisTemplate.opsForValue().set(SeckillKeys.stockKey(voucherId), String.valueOf(stock));
+            voucherOrderStreamRegistry.register(SeckillKeys.streamKey(voucherId));
+        } else {
+            // 各分段在不同slot上，Redis Cluster不支持跨slot的MSET，逐个写入
+            for (int i = 0; i < segments; i++) {
+                int part = stock / segments + (i < stock % segments ? 1 : 0);
+                stringRedisTemplate.opsForValue().set(SeckillKeys.segmentStockKey(voucherId, i), String.valueOf(part));
+                voucherOrderStreamRegistry.register(SeckillKeys.segmentStreamKey(voucherId, i));
+            }
+            stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_SEGMENTS_KEY + voucherId, String.valueOf(segments));
+        }
+        segmentsCache.put(voucherId, segments);
+        seckillSoldOutRegistry.reset(voucherId);
+    }
+
+    /**
+     * 补货，分段的优惠券把补货数量平均加到各个分段上
+     */
+    public void addStock(Long voucherId, int count) {
+        int segments = segmentsOf(voucherId);
+        if (segments == 1) {
+            stringRedisTemplate.opsForValue().increment(SeckillKeys.stockKey(voucherId), count);
+        } else {
+            for (int i = 0; i < segments; i++) {
+                int part = count / segments + (i < count % segments ? 1 : 0);
+                if (part > 0) {
+                    stringRedisTemplate.opsForValue().increment(SeckillKeys.segmentStockKey(voucherId, i), part);
+                }
+            }
+        }
+        seckillSoldOutRegistry.reset(voucherId);
+    }
+
+    /**
+     * 执行秒杀扣减
+     * @return 0 下单成功，1 库存不足，2 重复下单，3 尚未开始，4 已经结束，5 库存还没有预热，6 优惠券不存在
+     */
+    public int trySeckill(Long voucherId, Long userId, Long orderId) {
+        // 0.数据库中不存在的优惠券，不执行脚本，也不再触发加载
+        if (seckillStockPreheater.isAbsent(voucherId)) {
+            return SeckillStockPreheater.NOT_FOUND;
+        }
+        int segments = segmentsOf(voucherId);
+        if (segments == 1 && seckillProperties.getStock().isLeaseEnabled()) {
+            // 租约模式下本节点租约用完不代表其他节点也卖完，不使用全局售罄标记
+            return seckillStockLeaseManager.trySeckill(voucherId, userId, orderId);
+        }
+        // 1.本地已售罄，直接返回库存不足
+        if (seckillSoldOutRegistry.isSoldOut(voucherId)) {
+            return 1;
+        }
+        // 2.执行脚本
+        int r = segments == 1
+                ? executeSingle(voucherId, userId, orderId)
+                : executeSegmented(voucherId, userId, orderId, segments);
+        // 3.库存不足时标记售罄并广播
+        if (r == 1) {
+            seckillSoldOutRegistry.markSoldOut(voucherId);
+        }
+        // 4.库存还没有预热时异步加载，加载后分段数可能变化，重新读取
+        if (r == SeckillStockPreheater.NOT_PREHEATED) {
+            segmentsCache.remove(voucherId);
+            seckillStockPreheater.preheatAsync(voucherId);
+        }
+        return r;
+    }
+
+    /**
+     * 订单取消后归还Redis库存并移除下单用户，分段的优惠券归还到用户所属分段
+     * 按订单id只归还一次，重复调用不会多还；调用方需要在归还后清除售罄标记
+     * @return 是否是第一次归还
+     */
+    public boolean release(Long voucherId, Long userId, Long orderId) {
+        int segments = segmentsOf(voucherId);
+        int segment = (userId.hashCode() & Integer.MAX_VALUE) % segments;
+        String[] dedup = seckillOrderDedup.args(voucherId);
+        List<String> keys = segments == 1
+                ? Arrays.asList(SeckillKeys.stockKey(voucherId), SeckillKeys.orderKey(voucherId),
+                        SeckillKeys.buyersKey(voucherId), SeckillKeys.releasedKey(voucherId))
+                : Arrays.asList(SeckillKeys.segmentStockKey(voucherId, segment), SeckillKeys.segmentOrderKey(voucherId, segment),
+                        SeckillKeys.segmentBuyersKey(voucherId, segment), SeckillKeys.segmentReleasedKey(voucherId, segment));
+        Long result = stringRedisTemplate.execute(RELEASE_SCRIPT, keys,
+                userId.toString(), dedup[0], dedup[1], orderId.toString(), dedup[2]);
+        return result == null || result != 2L;
+    }
+
+    /**
+     * 订单占用的Redis库存是否已经归还，已归还的订单不能再落库
+     */
+    public boolean isReleased(Long voucherId, Long userId, Long orderId) {
+        int segments = segmentsOf(voucherId);
+        String key = segments == 1
+                ? SeckillKeys.releasedKey(voucherId)
+                : SeckillKeys.segmentReleasedKey(voucherId, (userId.hashCode() & Integer.MAX_VALUE) % segments);
+        return Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(key, orderId.toString()));
+    }
+
+    private int executeSingle(Long voucherId, Long userId, Long orderId) {
+        String[] dedup = seckillOrderDedup.args(voucherId);
+        Long result = stringRedisTemplate.execute(SECKILL_SCRIPT,
+                Arrays.asList(SeckillKeys.stockKey(voucherId), SeckillKeys.orderKey(voucherId),
+                        SeckillKeys.streamKey(voucherId), SeckillKeys.buyersKey(voucherId),
+                        SeckillKeys.windowKey(voucherId)),
+                voucherId.toString(),
+                userId.toString(),
+                orderId.toString(),
+                dedup[0],
+                dedup[1],
+                dedup[2],
+                orderQueue.enqueuedByScript() ? "1" : "0"
+        );
+        return result.intValue();
+    }
+
+    private int executeSegmented(Long voucherId, Long userId, Long orderId, int segments) {
+        // 1.在本段扣减
+        int home = (userId.hashCode() & Integer.MAX_VALUE) % segments;
+        int r = executeSegment(voucherId, userId, orderId, home, false);
+        if (r != 1) {
+            return r;
+        }
+        // 2.本段库存不足，依次向兄弟分段借库存
+        for (int i = 1; i < segments; i++) {
+            String siblingKey = SeckillKeys.segmentStockKey(voucherId, (home + i) % segments);
+            Long borrowed = stringRedisTemplate.execute(BORROW_SCRIPT, Collections.singletonList(siblingKey));
+            if (borrowed == null || borrowed != 1L) {
+                continue;
+            }
+            r = executeSegment(voucherId, userId, orderId, home, true);
+            if (r != 0) {
+                // 借到后发现重复下单，把库存还回去
+                stringRedisTemplate.opsForValue().increment(siblingKey);
+            }
+            return r;
+        }
+        // 3.所有分段都没有库存
+        return 1;
+    }
+
+    private int executeSegment(Long voucherId, Long userId, Long orderId, int segment, boolean borrowed) {
+        String[] dedup = seckillOrderDedup.args(voucherId);
+        Long result = stringRedisTemplate.execute(SEGMENT_SCRIPT,
+                Arrays.asList(SeckillKeys.segmentStockKey(voucherId, segment),
+                        SeckillKeys.segmentOrderKey(voucherId, segment),
+                        SeckillKeys.segmentStreamKey(voucherId, segment),
+                        SeckillKeys.segmentBuyersKey(voucherId, segment),
+                        SeckillKeys.segmentWindowKey(voucherId, segment)),
+                voucherId.toString(),
+                userId.toString(),
+                orderId.toString(),
+                borrowed ? "1" : "0",
+                dedup[0],
+                dedup[1],
+                dedup[2],
+                orderQueue.enqueuedByScript() ? "1" : "0"
+        );
+        return result.intValue();
+    }
+
+    private int segmentsOf(Long voucherId) {
+        return segmentsCache.computeIfAbsent(voucherId, id -> {
+            String segments = stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_SEGMENTS_KEY + id);
+            return StrUtil.isBlank(segments) ? 1 : Integer.parseInt(segments);
+        });
+    }
+}
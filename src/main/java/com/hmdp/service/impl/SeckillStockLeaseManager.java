@@ -0,0 +1,280 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.service.OrderQueue;
+import com.hmdp.utils.SeckillKeys;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 节点本地库存租约
+ * <p>
+ * 每个节点从 seckill:stock:{voucherId} 原子地租借一批库存（lease-chunk），在本地用CAS扣减，
+ * 剩余量低于 lease-refill-ratio 时异步续租；库存租完后本节点直接返回库存不足，不再访问Redis扣库存。
+ * 一人一单仍由Redis中的 seckill:order:{voucherId} 或 seckill:buyers:{voucherId} 判定。
+ * 活动结束或节点下线时，未卖出的租约归还到Redis。
+ */
+@Slf4j
+@Component
+public class SeckillStockLeaseManager {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private SeckillOrderDedup seckillOrderDedup;
+    @Resource
+    private OrderQueue orderQueue;
+    @Resource
+    private SeckillStockPreheater seckillStockPreheater;
+    @Resource
+    private SeckillWindowGate seckillWindowGate;
+
+    private static final DefaultRedisScript<Long> LEASE_SCRIPT;
+    private static final DefaultRedisScript<Long> LEASED_ORDER_SCRIPT;
+
+    static {
+        LEASE_SCRIPT = new DefaultRedisScript<>();
+        LEASE_SCRIPT.setLocation(new ClassPathResource("seckill-lease.lua"));
+        LEASE_SCRIPT.setResultType(Long.class);
+        LEASED_ORDER_SCRIPT = SeckillStockDispatcher.orderScript("seckill-leased.lua");
+    }
+
+    // Redis中库存租完后，间隔一段时间再尝试续租，避免每个请求都访问Redis
+    private static final long EXHAUSTED_RETRY_MILLIS = 1000;
+    // refill 的返回值，租约已归还
+    private static final int CLOSED = -2;
+
+    private static final ExecutorService LEASE_EXECUTOR =
+            Executors.newSingleThreadExecutor(new NamedThreadFactory("seckill-lease-", true));
+
+    private final Map<Long, Lease> leases = new ConcurrentHashMap<>();
+
+    private static class Lease {
+        // 本节点剩余可卖的库存
+        private final AtomicInteger remaining = new AtomicInteger();
+        // 是否正在异步续租
+        private final AtomicBoolean refilling = new AtomicBoolean();
+        // Redis中没有库存时，在此时间之前不再续租
+        private volatile long exhaustedUntil;
+        // 活动结束时间，毫秒时间戳，结束后归还租约
+        private final long endAt;
+        // 已归还，在lease的监视器内修改；之后还回来的库存直接加回Redis
+        private boolean closed;
+
+        private Lease(long endAt) {
+            this.endAt = endAt;
+        }
+    }
+
+    /**
+     * 使用本地租约秒杀
+     * @return 0 下单成功，1 库存不足，2 重复下单，3 尚未开始，4 已经结束，5 库存还没有预热
+     */
+    public int trySeckill(Long voucherId, Long userId, Long orderId) {
+        Lease lease = leases.get(voucherId);
+        if (lease == null) {
+            // 结束时间取自预热写入Redis的时间窗口，不在请求路径上查数据库；
+            // 没有时间窗口说明还没有预热或优惠券不存在，不创建租约
+            Long endAt = seckillWindowGate.endOf(voucherId);
+            if (endAt == null) {
+                seckillStockPreheater.preheatAsync(voucherId);
+                return SeckillStockPreheater.NOT_PREHEATED;
+            }
+            if (endAt < System.currentTimeMillis()) {
+                return SeckillWindowGate.ENDED;
+            }
+            lease = leases.computeIfAbsent(voucherId, id -> new Lease(endAt));
+        }
+        // 1.本地扣减库存
+        int acquired = acquire(voucherId, lease);
+        if (acquired != 0) {
+            return acquired;
+        }
+        // 2.一人一单校验并发送订单消息
+        Long result;
+        try {
+            String[] dedup = seckillOrderDedup.args(voucherId);
+            result = stringRedisTemplate.execute(LEASED_ORDER_SCRIPT,
+                    Arrays.asList(SeckillKeys.orderKey(voucherId), SeckillKeys.streamKey(voucherId),
+                            SeckillKeys.buyersKey(voucherId), SeckillKeys.windowKey(voucherId)),
+                    voucherId.toString(),
+                    userId.toString(),
+                    orderId.toString(),
+                    dedup[0],
+                    dedup[1],
+                    dedup[2],
+                    orderQueue.enqueuedByScript() ? "1" : "0"
+            );
+        } catch (RuntimeException e) {
+            giveBack(voucherId, lease);
+            throw e;
+        }
+        if (result.intValue() != 0) {
+            // 重复下单或不在时间窗口内，库存还给本地租约
+            giveBack(voucherId, lease);
+        }
+        return result.intValue();
+    }
+
+    /**
+     * 从本地租约扣减一个库存
+     * @return 0 扣减成功，1 库存不足，5 库存还没有预热
+     */
+    private int acquire(Long voucherId, Lease lease) {
+        int chunk = seckillProperties.getStock().getLeaseChunk();
+        int refillAt = (int) (chunk * seckillProperties.getStock().getLeaseRefillRatio());
+        while (true) {
+            int n = lease.remaining.get();
+            if (n > 0) {
+                if (lease.remaining.compareAndSet(n, n - 1)) {
+                    if (n - 1 <= refillAt) {
+                        refillAsync(voucherId, lease);
+                    }
+                    return 0;
+                }
+                continue;
+            }
+            // 本地租约用完，同步续租一次；租约已归还说明活动已结束或节点正在下线
+            int leased = refill(voucherId, lease);
+            if (leased == CLOSED) {
+                return SeckillWindowGate.ENDED;
+            }
+            if (leased < 0) {
+                seckillStockPreheater.preheatAsync(voucherId);
+                return SeckillStockPreheater.NOT_PREHEATED;
+            }
+            if (leased == 0) {
+                return 1;
+            }
+        }
+    }
+
+    private void refillAsync(Long voucherId, Lease lease) {
+        if (!lease.refilling.compareAndSet(false, true)) {
+            return;
+        }
+        LEASE_EXECUTOR.submit(() -> {
+            try {
+                refill(voucherId, lease);
+            } catch (Exception e) {
+                log.error("续租秒杀库存异常", e);
+            } finally {
+                lease.refilling.set(false);
+            }
+        });
+    }
+
+    /**
+     * 库存还给租约；租约已经归还时直接加回Redis，不会留在已经移除的租约里
+     */
+    private void giveBack(Long voucherId, Lease lease) {
+        synchronized (lease) {
+            if (!lease.closed) {
+                lease.remaining.incrementAndGet();
+                return;
+            }
+        }
+        stringRedisTemplate.opsForValue().increment(SeckillKeys.stockKey(voucherId), 1);
+    }
+
+    /**
+     * 从Redis租借一批库存
+     * @return 租到的数量，库存key不存在时返回-1，租约已归还时返回 CLOSED
+     */
+    private int refill(Long voucherId, Lease lease) {
+        synchronized (lease) {
+            if (lease.closed) {
+                return CLOSED;
+            }
+            if (System.currentTimeMillis() < lease.exhaustedUntil) {
+                return 0;
+            }
+            Long leased = stringRedisTemplate.execute(LEASE_SCRIPT,
+                    Collections.singletonList(SeckillKeys.stockKey(voucherId)),
+                    String.valueOf(seckillProperties.getStock().getLeaseChunk()));
+            int n = leased == null ? 0 : leased.intValue();
+            if (n < 0) {
+                return n;
+            }
+            if (n == 0) {
+                lease.exhaustedUntil = System.currentTimeMillis() + EXHAUSTED_RETRY_MILLIS;
+                return 0;
+            }
+            lease.remaining.addAndGet(n);
+            return n;
+        }
+    }
+
+    /**
+     * 归还本节点未卖出的库存，先从 leases 中移除再关闭租约；
+     * 关闭后续租直接失败，持有旧租约的请求还回来的库存直接加回Redis
+     */
+    private void release(Long voucherId, Lease lease) {
+        leases.remove(voucherId, lease);
+        synchronized (lease) {
+            lease.closed = true;
+            int n = lease.remaining.getAndSet(0);
+            if (n > 0) {
+                try {
+                    stringRedisTemplate.opsForValue().increment(SeckillKeys.stockKey(voucherId), n);
+                } catch (RuntimeException e) {
+                    // 归还失败，租约放回去等下次归还
+                    lease.remaining.addAndGet(n);
+                    lease.closed = false;
+                    leases.putIfAbsent(voucherId, lease);
+                    throw e;
+                }
+                log.debug("归还秒杀库存租约，voucherId:{}，数量:{}", voucherId, n);
+            }
+        }
+    }
+
+    /**
+     * 活动结束的优惠券归还租约
+     */
+    @Scheduled(fixedDelay = 10000)
+    public void releaseEnded() {
+        long now = System.currentTimeMillis();
+        leases.forEach((voucherId, lease) -> {
+            if (lease.endAt < now) {
+                try {
+                    release(voucherId, lease);
+                } catch (Exception e) {
+                    log.error("归还秒杀库存租约异常", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 节点下线时归还全部租约
+     */
+    @PreDestroy
+    public void releaseAll() {
+        leases.forEach((voucherId, lease) -> {
+            try {
+                release(voucherId, lease);
+            } catch (Exception e) {
+                log.error("归还秒杀库存租约异常", e);
+            }
+        });
+    }
+}
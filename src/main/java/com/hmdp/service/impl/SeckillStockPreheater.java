@@ -0,0 +1,257 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.utils.LocalCache;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillKeys;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 秒杀库存预热
+ * <p>
+ * Redis被清空、或者优惠券创建时还没有写入Redis时，秒杀脚本找不到库存key会返回 NOT_PREHEATED，这里负责补齐：
+ * 1.启动时及之后定时检查所有未结束的秒杀券，库存key不存在的优惠券从数据库加载；
+ * 2.秒杀脚本返回 NOT_PREHEATED 时异步加载，同一张优惠券同时只有一个加载任务；
+ * 3.加载顺序为 时间窗口 -> 已下单用户 -> 库存，库存最后写入且使用SETNX，
+ * 库存可见时一人一单已经生效，也不会覆盖其他实例已经写入、正在扣减的库存；
+ * 4.旧版本不带哈希标签的 seckill:stock:id、seckill:order:id 在加载时迁移到新key；
+ * 5.数据库中不存在的优惠券在本地记录一段时间，期间直接返回 NOT_FOUND，不再执行脚本和查询数据库
+ */
+@Slf4j
+@Component
+public class SeckillStockPreheater {
+
+    public static final int NOT_PREHEATED = 5;
+    public static final int NOT_FOUND = 6;
+
+    // 不存在的优惠券的记录时间
+    private static final long ABSENT_TTL_MILLIS = 30000;
+
+    // 每个管道写入的下单用户数
+    private static final int PIPELINE_BATCH = 1000;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private IVoucherOrderServiceImpl voucherOrderService;
+    @Resource
+    private SeckillOrderDedup seckillOrderDedup;
+    @Resource
+    private SeckillWindowGate seckillWindowGate;
+    @Resource
+    private VoucherOrderStreamRegistry voucherOrderStreamRegistry;
+    @Resource
+    private SeckillSoldOutRegistry seckillSoldOutRegistry;
+
+    private static final ExecutorService PREHEAT_EXECUTOR =
+            Executors.newSingleThreadExecutor(new NamedThreadFactory("seckill-preheat-", true));
+
+    // 正在加载的优惠券
+    private final Set<Long> loading = ConcurrentHashMap.newKeySet();
+    // 数据库中不存在的优惠券，有界缓存，随机id不会无限增长
+    private final LocalCache<Boolean> absent = new LocalCache<>(10000);
+
+    /**
+     * 预热所有未结束的秒杀券
+     */
+    @Scheduled(fixedDelayString = "${seckill.stock.preheat-interval:60000}")
+    public void preheatActive() {
+        List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                .gt("end_time", LocalDateTime.now())
+                .list();
+        for (SeckillVoucher voucher : vouchers) {
+            if (!loading.add(voucher.getVoucherId())) {
+                continue;
+            }
+            try {
+                preheat(voucher);
+            } catch (Exception e) {
+                log.error("预热秒杀库存异常，voucherId:{}", voucher.getVoucherId(), e);
+            } finally {
+                loading.remove(voucher.getVoucherId());
+            }
+        }
+    }
+
+    /**
+     * 秒杀脚本返回 NOT_PREHEATED 时调用，已经在加载的优惠券直接返回
+     */
+    public void preheatAsync(Long voucherId) {
+        if (isAbsent(voucherId) || !loading.add(voucherId)) {
+            return;
+        }
+        PREHEAT_EXECUTOR.submit(() -> {
+            try {
+                SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+                if (voucher == null) {
+                    absent.put(voucherId.toString(), Boolean.TRUE, ABSENT_TTL_MILLIS);
+                } else {
+                    preheat(voucher);
+                }
+            } catch (Exception e) {
+                log.error("预热秒杀库存异常，voucherId:{}", voucherId, e);
+            } finally {
+                loading.remove(voucherId);
+            }
+        });
+    }
+
+    /**
+     * 最近一次加载时数据库中不存在该优惠券
+     */
+    public boolean isAbsent(Long voucherId) {
+        return absent.get(voucherId.toString()) != null;
+    }
+
+    /**
+     * 优惠券创建或补货后清除不存在的记录
+     */
+    public void forgetAbsent(Long voucherId) {
+        absent.remove(voucherId.toString());
+    }
+
+    /**
+     * 加载一张优惠券，库存key都已存在时什么也不做
+     */
+    private void preheat(SeckillVoucher voucher) {
+        Long voucherId = voucher.getVoucherId();
+        // 1.确定分段数：已登记的分段数优先，没有登记且未分段的库存key存在时说明已经预热
+        String registered = stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_SEGMENTS_KEY + voucherId);
+        int segments;
+        if (StrUtil.isNotBlank(registered)) {
+            segments = Integer.parseInt(registered);
+        } else if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(SeckillKeys.stockKey(voucherId)))) {
+            return;
+        } else {
+            segments = Math.max(1, seckillProperties.getStock().getSegments());
+        }
+        List<String> stockKeys = new ArrayList<>(segments);
+        for (int i = 0; i < segments; i++) {
+            stockKeys.add(segments == 1 ? SeckillKeys.stockKey(voucherId) : SeckillKeys.segmentStockKey(voucherId, i));
+        }
+        List<String> missing = new ArrayList<>();
+        for (String key : stockKeys) {
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+                missing.add(key);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        // 2.时间窗口、去重key过期时间、订单stream
+        seckillOrderDedup.reset(voucherId, voucher.getEndTime());
+        seckillWindowGate.init(voucherId, voucher.getBeginTime(), voucher.getEndTime(), segments);
+        for (int i = 0; i < segments; i++) {
+            voucherOrderStreamRegistry.register(segments == 1
+                    ? SeckillKeys.streamKey(voucherId) : SeckillKeys.segmentStreamKey(voucherId, i));
+        }
+        // 3.已下单用户：数据库中未取消的订单，加上旧版本key中还没有落库的用户
+        Set<Long> buyers = new HashSet<>();
+        voucherOrderService.query().select("user_id").eq("voucher_id", voucherId).isNotNull("active").list()
+                .forEach(order -> buyers.add(order.getUserId()));
+        Set<String> legacyBuyers = stringRedisTemplate.opsForSet().members(RedisConstants.SECKILL_ORDER_KEY + voucherId);
+        if (legacyBuyers != null) {
+            legacyBuyers.forEach(userId -> buyers.add(Long.valueOf(userId)));
+        }
+        loadBuyers(voucherId, segments, buyers);
+        // 4.库存：旧版本的库存key包含还没有落库的订单，比数据库准确
+        String legacyStock = stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_STOCK_KEY + voucherId);
+        int stock;
+        if (segments == 1 && StrUtil.isNotBlank(legacyStock)) {
+            stock = Integer.parseInt(legacyStock);
+        } else {
+            Integer dbStock = seckillVoucherService.queryStock(voucherId);
+            stock = dbStock == null ? 0 : dbStock;
+        }
+        loadStock(voucherId, segments, stockKeys, missing, stock);
+        stringRedisTemplate.delete(Arrays.asList(
+                RedisConstants.SECKILL_STOCK_KEY + voucherId, RedisConstants.SECKILL_ORDER_KEY + voucherId));
+        seckillSoldOutRegistry.reset(voucherId);
+        log.info("已预热秒杀库存，voucherId:{}，分段数:{}，库存:{}，已下单用户:{}", voucherId, segments, stock, buyers.size());
+    }
+
+    /**
+     * 管道批量写入已下单用户，分段的优惠券写入用户所属分段，与 SeckillStockDispatcher 选段方式一致
+     */
+    private void loadBuyers(Long voucherId, int segments, Set<Long> buyers) {
+        String[] dedup = seckillOrderDedup.args(voucherId);
+        boolean bitmap = "bitmap".equals(dedup[0]);
+        long bitmapLimit = Long.parseLong(dedup[1]);
+        long expireAt = Long.parseLong(dedup[2]);
+        List<Long> users = new ArrayList<>(buyers);
+        for (int from = 0; from < users.size(); from += PIPELINE_BATCH) {
+            List<Long> batch = users.subList(from, Math.min(from + PIPELINE_BATCH, users.size()));
+            stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Object execute(RedisOperations operations) {
+                    Set<String> dedupKeys = new HashSet<>();
+                    for (Long userId : batch) {
+                        int segment = (userId.hashCode() & Integer.MAX_VALUE) % segments;
+                        if (bitmap && userId >= 0 && userId < bitmapLimit) {
+                            String key = segments == 1
+                                    ? SeckillKeys.buyersKey(voucherId) : SeckillKeys.segmentBuyersKey(voucherId, segment);
+                            operations.opsForValue().setBit(key, userId, true);
+                            dedupKeys.add(key);
+                        } else {
+                            String key = segments == 1
+                                    ? SeckillKeys.orderKey(voucherId) : SeckillKeys.segmentOrderKey(voucherId, segment);
+                            operations.opsForSet().add(key, userId.toString());
+                            dedupKeys.add(key);
+                        }
+                    }
+                    if (expireAt > 0) {
+                        dedupKeys.forEach(key -> operations.expireAt(key, new Date(expireAt * 1000)));
+                    }
+                    return null;
+                }
+            });
+        }
+    }
+
+    /**
+     * 管道写入库存，只写入缺失的key，分段方式与 SeckillStockDispatcher#initStock 一致
+     */
+    private void loadStock(Long voucherId, int segments, List<String> stockKeys, List<String> missing, int stock) {
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                if (segments > 1) {
+                    operations.opsForValue().setIfAbsent(RedisConstants.SECKILL_SEGMENTS_KEY + voucherId, String.valueOf(segments));
+                }
+                for (int i = 0; i < segments; i++) {
+                    String key = stockKeys.get(i);
+                    if (!missing.contains(key)) {
+                        continue;
+                    }
+                    // 只丢失了部分分段时，缺失的分段从0开始，差额由库存核对任务修正
+                    int part = missing.size() < segments ? 0 : stock / segments + (i < stock % segments ? 1 : 0);
+                    operations.opsForValue().setIfAbsent(key, String.valueOf(part));
+                }
+                return null;
+            }
+        });
+    }
+}
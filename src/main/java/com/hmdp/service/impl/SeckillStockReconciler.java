@@ -0,0 +1,319 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.OrderQueue;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillKeys;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Redis库存与数据库库存的核对任务
+ * <p>
+ * 正常情况下 Redis库存 + 已下单未落库的订单数 = 数据库库存，其中未落库的订单数为该券所有订单stream中
+ * 未投递的消息数与pending消息数之和，旧的公共stream stream.orders 中的消息按消息里的voucherId计入对应的优惠券。
+ * 消费失败、手工改库等原因造成的偏差通过这里发现：
+ * 1.SCAN seckill:stock:* 找出Redis中有库存的优惠券，分段库存按优惠券合计；
+ * 2.每张优惠券在有界线程池中并行核对，差异导出为按优惠券打标签的指标，不再核对的优惠券删除指标；
+ * 3.核对过程中订单仍在流转，单次结果存在瞬时差异，连续多次核对出相同的差异才自动修正Redis库存；
+ * 开启库存租约时，各节点租走未卖出的库存不在Redis中，只报告差异不修正
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "seckill.order", name = "queue", havingValue = OrderQueue.REDIS_STREAM, matchIfMissing = true)
+public class SeckillStockReconciler {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private VoucherOrderStreamRegistry voucherOrderStreamRegistry;
+    @Resource
+    private SeckillSoldOutRegistry seckillSoldOutRegistry;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private ExecutorService reconcileExecutor;
+
+    // 每张优惠券最近一次核对出的差异：Redis库存 + 未落库订单数 - 数据库库存
+    private final Map<Long, AtomicLong> discrepancies = new ConcurrentHashMap<>();
+    // 连续核对出相同差异的次数
+    private final Map<Long, Integer> confirmedRuns = new ConcurrentHashMap<>();
+    private final AtomicLong driftedVouchers = new AtomicLong();
+    private Counter correctedCounter;
+
+    @PostConstruct
+    public void init() {
+        reconcileExecutor = Executors.newFixedThreadPool(
+                Math.max(1, seckillProperties.getStock().getReconcileParallelism()),
+                new NamedThreadFactory("seckill-reconcile-", true));
+        Gauge.builder("seckill.stock.drifted", driftedVouchers, AtomicLong::get)
+                .description("Redis库存与数据库库存不一致的优惠券数")
+                .register(meterRegistry);
+        correctedCounter = Counter.builder("seckill.stock.corrected")
+                .description("自动修正Redis库存的次数")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        reconcileExecutor.shutdownNow();
+    }
+
+    @Scheduled(fixedDelayString = "${seckill.stock.reconcile-interval:60000}")
+    public void reconcile() {
+        if (!seckillProperties.getStock().isReconcileEnabled()) {
+            return;
+        }
+        // 1.找出Redis中的库存key和订单stream，按优惠券分组
+        Map<Long, List<String>> stockKeys = scanStockKeys();
+        Map<Long, List<String>> streams = new HashMap<>();
+        Map<Long, Long> legacyBacklog = Collections.emptyMap();
+        for (String stream : voucherOrderStreamRegistry.streams()) {
+            Long voucherId = SeckillKeys.voucherIdOf(stream);
+            if (voucherId != null) {
+                streams.computeIfAbsent(voucherId, k -> new ArrayList<>()).add(stream);
+            } else if (RedisConstants.SECKILL_ORDER_STREAM.equals(stream)) {
+                // 旧的公共stream混有多张优惠券的订单，先按优惠券统计一次
+                legacyBacklog = legacyBacklog(stream);
+            }
+        }
+        // 2.并行核对
+        List<Callable<Long>> tasks = new ArrayList<>(stockKeys.size());
+        Map<Long, Long> legacy = legacyBacklog;
+        stockKeys.forEach((voucherId, keys) -> tasks.add(() ->
+                reconcile(voucherId, keys, streams.getOrDefault(voucherId, Collections.emptyList()),
+                        legacy.getOrDefault(voucherId, 0L))));
+        long drifted = 0;
+        try {
+            for (Future<Long> future : reconcileExecutor.invokeAll(tasks)) {
+                try {
+                    if (future.get() != 0) {
+                        drifted++;
+                    }
+                } catch (ExecutionException e) {
+                    log.error("核对秒杀库存异常", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        // 3.已经没有库存key的优惠券不再核对，同时删除它的差异指标
+        discrepancies.keySet().removeIf(voucherId -> !stockKeys.containsKey(voucherId) && removeGauge(voucherId));
+        confirmedRuns.keySet().retainAll(stockKeys.keySet());
+        driftedVouchers.set(drifted);
+    }
+
+    /**
+     * 核对一张优惠券，返回差异
+     */
+    private long reconcile(Long voucherId, List<String> keys, List<String> streams, long legacyBacklog) {
+        // 1.先统计未落库的订单，再读Redis库存和数据库库存
+        long backlog = legacyBacklog;
+        for (String stream : streams) {
+            backlog += backlog(stream);
+        }
+        Map<String, Long> stocks = new HashMap<>(keys.size());
+        long redisStock = 0;
+        for (String key : keys) {
+            String value = stringRedisTemplate.opsForValue().get(key);
+            long stock = value == null ? 0 : Long.parseLong(value);
+            stocks.put(key, stock);
+            redisStock += stock;
+        }
+        Integer dbStock = seckillVoucherService.queryStock(voucherId);
+        if (dbStock == null) {
+            return 0;
+        }
+        long diff = redisStock + backlog - dbStock;
+        // 2.导出差异
+        long previous = discrepancies.computeIfAbsent(voucherId, id -> {
+            AtomicLong holder = new AtomicLong();
+            Gauge.builder("seckill.stock.discrepancy", holder, AtomicLong::get)
+                    .description("Redis库存 + 未落库订单数 - 数据库库存")
+                    .tag("voucherId", id.toString())
+                    .register(meterRegistry);
+            return holder;
+        }).getAndSet(diff);
+        if (diff == 0) {
+            confirmedRuns.remove(voucherId);
+            return 0;
+        }
+        // 3.连续多次相同的差异才认为是真实偏差
+        int runs = diff == previous ? confirmedRuns.getOrDefault(voucherId, 0) + 1 : 1;
+        confirmedRuns.put(voucherId, runs);
+        log.warn("优惠券{}库存不一致，Redis库存{}，未落库订单{}，数据库库存{}，连续{}次", voucherId, redisStock, backlog, dbStock, runs);
+        SeckillProperties.Stock config = seckillProperties.getStock();
+        if (config.isReconcileAutoCorrect() && !config.isLeaseEnabled() && runs >= config.getReconcileConfirmRuns()) {
+            correct(voucherId, stocks, diff);
+            confirmedRuns.remove(voucherId);
+        }
+        return diff;
+    }
+
+    /**
+     * 把Redis库存调整 -diff，多出的库存从库存最多的分段扣除，缺少的库存加到第一个分段
+     */
+    private void correct(Long voucherId, Map<String, Long> stocks, long diff) {
+        String key = diff > 0
+                ? Collections.max(stocks.entrySet(), Map.Entry.comparingByValue()).getKey()
+                : Collections.min(stocks.keySet());
+        stringRedisTemplate.opsForValue().increment(key, -diff);
+        if (diff < 0) {
+            seckillSoldOutRegistry.reset(voucherId);
+        }
+        correctedCounter.increment();
+        log.warn("已修正优惠券{}的Redis库存，{} {}", voucherId, key, -diff);
+    }
+
+    /**
+     * 订单stream中还未落库的消息数：未投递的消息数 + pending消息数
+     */
+    private long backlog(String stream) {
+        StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(stream);
+        for (int i = 0; i < groups.size(); i++) {
+            StreamInfo.XInfoGroup group = groups.get(i);
+            if (!RedisConstants.SECKILL_ORDER_GROUP.equals(group.groupName())) {
+                continue;
+            }
+            long pending = 0;
+            if (group.pendingCount() > 0) {
+                PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(stream, group.groupName());
+                pending = summary.getTotalPendingMessages();
+            }
+            return pending + undelivered(stream, group);
+        }
+        return 0;
+    }
+
+    /**
+     * 旧的公共stream中按优惠券统计的未落库消息数：pending消息和最后投递的消息之后的消息都按voucherId字段计数
+     */
+    private Map<Long, Long> legacyBacklog(String stream) {
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(stream))) {
+            return Collections.emptyMap();
+        }
+        StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(stream);
+        for (int i = 0; i < groups.size(); i++) {
+            StreamInfo.XInfoGroup group = groups.get(i);
+            if (!RedisConstants.SECKILL_ORDER_GROUP.equals(group.groupName())) {
+                continue;
+            }
+            // 1.pending消息的id，从最早的pending消息开始读取
+            Set<String> pendingIds = new HashSet<>();
+            RecordId from = RecordId.of(group.lastDeliveredId());
+            if (group.pendingCount() > 0) {
+                PendingMessages pending = stringRedisTemplate.opsForStream()
+                        .pending(stream, group.groupName(), Range.unbounded(), group.pendingCount());
+                for (PendingMessage message : pending) {
+                    pendingIds.add(message.getIdAsString());
+                    if (before(message.getId(), from)) {
+                        from = message.getId();
+                    }
+                }
+            }
+            // 2.逐条判断是pending消息或者还未投递，按优惠券计数
+            List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                    .range(stream, Range.rightUnbounded(Range.Bound.inclusive(from.getValue())));
+            Map<Long, Long> backlog = new HashMap<>();
+            if (records == null) {
+                return backlog;
+            }
+            RecordId lastDelivered = RecordId.of(group.lastDeliveredId());
+            for (MapRecord<String, Object, Object> record : records) {
+                Object voucherId = record.getValue().get("voucherId");
+                if (voucherId == null) {
+                    continue;
+                }
+                if (pendingIds.contains(record.getId().getValue()) || before(lastDelivered, record.getId())) {
+                    backlog.merge(Long.valueOf(voucherId.toString()), 1L, Long::sum);
+                }
+            }
+            return backlog;
+        }
+        return Collections.emptyMap();
+    }
+
+    private static boolean before(RecordId a, RecordId b) {
+        return a.getTimestamp() < b.getTimestamp()
+                || (a.getTimestamp().equals(b.getTimestamp()) && a.getSequence() < b.getSequence());
+    }
+
+    /**
+     * 删除不再核对的优惠券的差异指标
+     */
+    private boolean removeGauge(Long voucherId) {
+        Gauge gauge = meterRegistry.find("seckill.stock.discrepancy").tag("voucherId", voucherId.toString()).gauge();
+        if (gauge != null) {
+            meterRegistry.remove(gauge);
+        }
+        return true;
+    }
+
+    private long undelivered(String stream, StreamInfo.XInfoGroup group) {
+        // Redis 7 的 XINFO GROUPS 直接返回lag
+        Object lag = group.getRaw().get("lag");
+        if (lag instanceof Number) {
+            return ((Number) lag).longValue();
+        }
+        // 更早的版本统计最后投递的消息之后的消息数，已裁剪的stream中这部分消息很少
+        String lastDelivered = group.lastDeliveredId();
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .range(stream, Range.rightUnbounded(Range.Bound.inclusive(lastDelivered)));
+        if (records == null || records.isEmpty()) {
+            return 0;
+        }
+        return lastDelivered.equals(records.get(0).getId().getValue()) ? records.size() - 1 : records.size();
+    }
+
+    /**
+     * SCAN seckill:stock:*，按优惠券分组库存key
+     */
+    private Map<Long, List<String>> scanStockKeys() {
+        Map<Long, List<String>> keys = new HashMap<>();
+        ScanOptions options = ScanOptions.scanOptions().match(RedisConstants.SECKILL_STOCK_KEY + "*").count(1000).build();
+        stringRedisTemplate.execute((RedisCallback<Void>) connection -> {
+            try (Cursor<byte[]> cursor = connection.scan(options)) {
+                while (cursor.hasNext()) {
+                    String key = new String(cursor.next(), StandardCharsets.UTF_8);
+                    Long voucherId = SeckillKeys.voucherIdOf(key);
+                    if (voucherId != null) {
+                        keys.computeIfAbsent(voucherId, k -> new ArrayList<>()).add(key);
+                    }
+                }
+            }
+            return null;
+        });
+        return keys;
+    }
+}
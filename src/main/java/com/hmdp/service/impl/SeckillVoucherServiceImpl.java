@@ -1,15 +1,31 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.config.SeckillProperties;
 import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.SeckillVoucherStock;
 import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.SeckillVoucherStockMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * <p>
  * 秒杀优惠券表，与优惠券是一对一关系 服务实现类
  * </p>
+ * 开启分桶库存（seckill.stock.db-buckets > 1）时，新建的优惠券库存拆到 tb_seckill_voucher_stock 的多行上，
+ * 每笔订单按订单id选择一行扣减，多个落库线程不再争抢同一行的行锁；
+ * 本桶不足时从0号桶开始按序号升序逐桶扣减，并发的事务以相同顺序加行锁，不会互相等待成环；
+ * 扣减在 READ COMMITTED 事务中执行，本桶条件更新失败时不保留行锁，不会先持有本桶再去锁序号更小的桶；
+ * 总库存对各桶求和，tb_seckill_voucher.stock 只保留初始库存
  *
  * @author cuiyq
  * @since 2022-01-04
@@ -17,4 +33,96 @@ import org.springframework.stereotype.Service;
 @Service
 public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements ISeckillVoucherService {
 
+    @Resource
+    private SeckillVoucherStockMapper seckillVoucherStockMapper;
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    // 优惠券的库存桶数，1表示未分桶
+    private final Map<Long, Integer> bucketsCache = new ConcurrentHashMap<>();
+
+    @Override
+    public void initStock(Long voucherId, int stock) {
+        int buckets = Math.max(1, seckillProperties.getStock().getDbBuckets());
+        if (buckets > 1) {
+            // 余数分给前几个桶
+            List<SeckillVoucherStock> rows = new ArrayList<>(buckets);
+            for (int i = 0; i < buckets; i++) {
+                rows.add(new SeckillVoucherStock()
+                        .setVoucherId(voucherId)
+                        .setBucket(i)
+                        .setStock(stock / buckets + (i < stock % buckets ? 1 : 0)));
+            }
+            seckillVoucherStockMapper.insertBatch(rows);
+        }
+        bucketsCache.put(voucherId, buckets);
+    }
+
+    @Override
+    public boolean deductStock(Long voucherId, Long bucketKey, int count) {
+        int buckets = bucketsOf(voucherId);
+        // 1.未分桶，直接扣减 tb_seckill_voucher
+        if (buckets == 1) {
+            return update()
+                    .setSql("stock = stock - " + count)
+                    .ge("stock", count)
+                    .eq("voucher_id", voucherId).update();
+        }
+        // 2.在本桶一次扣减，条件不满足时不修改任何行
+        int home = (int) ((bucketKey & Long.MAX_VALUE) % buckets);
+        if (seckillVoucherStockMapper.deduct(voucherId, home, count) > 0) {
+            return true;
+        }
+        // 3.本桶不足，从0号桶开始按序号升序，每个桶加锁读取后扣减 min(库存, 剩余数量)，只有总库存不足时才返回false
+        int remaining = count;
+        for (int bucket = 0; bucket < buckets && remaining > 0; bucket++) {
+            Integer stock = seckillVoucherStockMapper.lockStock(voucherId, bucket);
+            int take = stock == null ? 0 : Math.min(stock, remaining);
+            if (take > 0 && seckillVoucherStockMapper.deduct(voucherId, bucket, take) > 0) {
+                remaining -= take;
+            }
+        }
+        return remaining == 0;
+    }
+
+    @Override
+    public boolean addStock(Long voucherId, int count) {
+        int buckets = bucketsOf(voucherId);
+        if (buckets == 1) {
+            return update()
+                    .setSql("stock = stock + " + count)
+                    .eq("voucher_id", voucherId).update();
+        }
+        for (int i = 0; i < buckets; i++) {
+            int part = count / buckets + (i < count % buckets ? 1 : 0);
+            if (part > 0) {
+                seckillVoucherStockMapper.update(null, new UpdateWrapper<SeckillVoucherStock>()
+                        .setSql("stock = stock + " + part)
+                        .eq("voucher_id", voucherId)
+                        .eq("bucket", i));
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Integer queryStock(Long voucherId) {
+        if (bucketsOf(voucherId) == 1) {
+            SeckillVoucher seckillVoucher = getById(voucherId);
+            return seckillVoucher == null ? null : seckillVoucher.getStock();
+        }
+        // SELECT SUM(stock) FROM tb_seckill_voucher_stock WHERE voucher_id = ?
+        List<Object> sum = seckillVoucherStockMapper.selectObjs(new QueryWrapper<SeckillVoucherStock>()
+                .select("SUM(stock)")
+                .eq("voucher_id", voucherId));
+        return sum.isEmpty() || sum.get(0) == null ? null : ((Number) sum.get(0)).intValue();
+    }
+
+    private int bucketsOf(Long voucherId) {
+        return bucketsCache.computeIfAbsent(voucherId, id -> {
+            Integer count = seckillVoucherStockMapper.selectCount(
+                    new QueryWrapper<SeckillVoucherStock>().eq("voucher_id", id));
+            return count == null || count == 0 ? 1 : count;
+        });
+    }
 }
@@ -0,0 +1,134 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.utils.SeckillKeys;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 秒杀时间窗口的本地闸门
+ * <p>
+ * 活动开始、结束时间保存在Redis的 seckill:window:{voucherId} 哈希中，秒杀脚本以Redis时钟为准做最终校验；
+ * 这里在JVM内缓存时间窗口，明显早于开始或晚于结束的请求直接拒绝，不访问Redis和数据库。
+ * 本地时钟与Redis时钟可能有偏差，只拒绝超出 clockSkew 的请求，边界附近的请求交给脚本判断。
+ * Redis中还没有时间窗口（尚未预热或被清空）时只短暂缓存为不限制，补货广播时清除本地缓存。
+ */
+@Component
+public class SeckillWindowGate {
+
+    public static final int OPEN = 0;
+    public static final int NOT_STARTED = 3;
+    public static final int ENDED = 4;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    // 时间窗口 [开始, 结束] 毫秒时间戳；Redis中没有时间窗口的优惠券缓存为 [不限制, 不限制, 加载时间]
+    private final Map<Long, long[]> windows = new ConcurrentHashMap<>();
+
+    // 不限制的时间窗口只缓存这么久，之后重新从Redis加载
+    private static final long UNLIMITED_TTL_MILLIS = 1000;
+
+    /**
+     * 判断当前是否在秒杀时间窗口内
+     * @return 0 可以秒杀，3 尚未开始，4 已经结束
+     */
+    public int check(Long voucherId) {
+        long now = System.currentTimeMillis();
+        long[] window = windowOf(voucherId, now);
+        long skew = seckillProperties.getWindow().getClockSkew();
+        if (window[0] != Long.MIN_VALUE && now + skew < window[0]) {
+            return NOT_STARTED;
+        }
+        if (window[1] != Long.MAX_VALUE && now - skew > window[1]) {
+            return ENDED;
+        }
+        return OPEN;
+    }
+
+    /**
+     * 活动结束时间，毫秒时间戳；Redis中还没有时间窗口（未预热或优惠券不存在）时返回null
+     */
+    public Long endOf(Long voucherId) {
+        long end = windowOf(voucherId, System.currentTimeMillis())[1];
+        return end == Long.MAX_VALUE ? null : end;
+    }
+
+    /**
+     * 本地缓存的时间窗口，未命中或不限制的窗口过期时重新加载。
+     * 在ConcurrentHashMap之外读取Redis，加载慢的优惠券不会阻塞同一个哈希桶中的其他优惠券
+     */
+    private long[] windowOf(Long voucherId, long now) {
+        long[] window = windows.get(voucherId);
+        if (window != null && (window.length == 2 || now - window[2] <= UNLIMITED_TTL_MILLIS)) {
+            return window;
+        }
+        long[] loaded = load(voucherId);
+        if (window == null) {
+            long[] previous = windows.putIfAbsent(voucherId, loaded);
+            return previous == null ? loaded : previous;
+        }
+        // 加载期间 init 写入的时间窗口优先
+        return windows.replace(voucherId, window, loaded) ? loaded : windows.getOrDefault(voucherId, loaded);
+    }
+
+    /**
+     * 把时间窗口写入Redis并刷新本地缓存，分段的优惠券每个分段都写一份，保证脚本只访问同一slot的key
+     */
+    public void init(Long voucherId, LocalDateTime beginTime, LocalDateTime endTime, int segments) {
+        long[] window = {toMillis(beginTime), toMillis(endTime)};
+        Map<String, String> hash = new HashMap<>(2);
+        hash.put("begin", String.valueOf(window[0]));
+        hash.put("end", String.valueOf(window[1]));
+        if (segments == 1) {
+            stringRedisTemplate.opsForHash().putAll(SeckillKeys.windowKey(voucherId), hash);
+        } else {
+            for (int i = 0; i < segments; i++) {
+                stringRedisTemplate.opsForHash().putAll(SeckillKeys.segmentWindowKey(voucherId, i), hash);
+            }
+        }
+        windows.put(voucherId, window);
+    }
+
+    /**
+     * 清除本地缓存的时间窗口，下次检查时重新从Redis加载
+     */
+    public void invalidate(Long voucherId) {
+        windows.remove(voucherId);
+    }
+
+    /**
+     * 本地缓存未命中时从Redis加载，有时间窗口的优惠券只在第一次被秒杀时发生
+     */
+    private long[] load(Long voucherId) {
+        List<Object> values = stringRedisTemplate.opsForHash()
+                .multiGet(SeckillKeys.windowKey(voucherId), Arrays.asList("begin", "end"));
+        if (values.get(0) == null || values.get(1) == null) {
+            // 分段的优惠券读第0段的时间窗口
+            values = stringRedisTemplate.opsForHash()
+                    .multiGet(SeckillKeys.segmentWindowKey(voucherId, 0), Arrays.asList("begin", "end"));
+        }
+        String begin = (String) values.get(0);
+        String end = (String) values.get(1);
+        if (StrUtil.isBlank(begin) || StrUtil.isBlank(end)) {
+            return new long[]{Long.MIN_VALUE, Long.MAX_VALUE, System.currentTimeMillis()};
+        }
+        return new long[]{Long.parseLong(begin), Long.parseLong(end)};
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
@@ -1,5 +1,6 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
@@ -10,6 +11,7 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
+import com.hmdp.utils.BloomFilterManager;
 import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.CacheClient1;
 import com.hmdp.utils.RedisData;
@@ -33,6 +35,7 @@ import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 import static java.lang.Thread.sleep;
@@ -56,6 +59,12 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient1 cacheClient1;
 
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private BloomFilterManager bloomFilterManager;
+
 
     /**
      * 添加商户缓存 互斥锁解决缓存击穿问题
@@ -190,52 +199,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
      * @return
      */
     public Shop queryWithMutex(Long id) {
-        String key = CACHE_SHOP_KEY + id;
-        log.debug("查询商户缓存:{}", key);
-//        1.从redis查商户缓存
-        String json = str.opsForValue().get(key);
-//        2.如果存在直接返回json
-        if (StrUtil.isNotBlank(json)) {
-            Shop shop = JSONUtil.toBean(json, Shop.class);
-            return null;
-        }
-
-//        判断命中是否是空值
-//        3.如果是空字符串返回redis
-        if (json != null) {
-            return null;
-        }
-
-//        4.缓存没命中获取互斥锁
-        String lock = LOCK_SHOP_KEY + id;
-        Shop shop = null;
-
-        try {
-//        4.1。判断是否获取锁成功 否休眠一段时间，重新查询缓存
-            if (!tryLock(lock)) {
-                sleep(50);
-                return queryWithMutex(id);
-            }
-//        4.2.如果获取成功，查询数据库
-//        5.不存在，根据id从数据库查，
-            shop = getById(id);
-//        5.1.如果数据库查不到，返回错误
-            if (shop == null) {
-                //            redis写入空字符串
-                str.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                return null;
-            }
-//        5.2转入json存入
-            String jsonStr = JSONUtil.toJsonStr(shop);
-//        6.再写入到redis
-            str.opsForValue().set(key, jsonStr, CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        } finally {
-            //        7.释放互斥锁
-            unlock(lock);
-        }
-        return shop;
+//        同一节点内合并重建，跨节点等待持锁节点的重建通知，不再休眠重试
+        return cacheClient.queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
     }
 
 
@@ -277,6 +242,21 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return shop;
     }
 
+    /**
+     * 新增商户，写入布隆过滤器
+     *
+     * @param shop
+     * @return
+     */
+    @Override
+    public boolean save(Shop shop) {
+        boolean saved = super.save(shop);
+        if (saved) {
+            bloomFilterManager.add(BloomFilterManager.SHOP, shop.getId());
+        }
+        return saved;
+    }
+
     /**
      * 修改商户信息
      *
@@ -292,8 +272,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         }
 //        写入数据库
         updateById(shop);
-//        2.删除缓存
-        str.delete(CACHE_SHOP_KEY + id);
+//        2.删除缓存，并通知各节点删除一级缓存
+        cacheClient1.delete(CACHE_SHOP_KEY + id);
         return Result.ok();
     }
 
@@ -350,13 +330,17 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             Distance distance = result.getDistance();
             distanceMap.put(shopIdStr,distance);
         });
-        //5.根据id查询店铺
-        String idStr = StrUtil.join(",", ids);
-        List<Shop> shops = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
-            //5.1店铺跟距离结合起来
-        for (Shop shop : shops) {
-            Double distance = distanceMap.get(shop.getId().toString()).getValue();
-            shop.setDistance(distance);
+        //5.根据id批量查询店铺，结果按距离排序
+        List<Long> shopIds = ids.stream().map(Long::valueOf).collect(Collectors.toList());
+        List<Shop> cached = cacheClient.queryBatchWithPassThrough(CACHE_SHOP_KEY, shopIds, Shop.class,
+                misses -> listByIds(misses).stream().collect(Collectors.toMap(Shop::getId, shop -> shop)),
+                CACHE_SHOP_TTL, TimeUnit.MINUTES);
+            //5.1店铺跟距离结合起来，缓存中的对象是共享的，复制后再设置距离
+        List<Shop> shops = new ArrayList<>(cached.size());
+        for (Shop shop : cached) {
+            Shop copy = BeanUtil.copyProperties(shop, Shop.class);
+            copy.setDistance(distanceMap.get(shop.getId().toString()).getValue());
+            shops.add(copy);
         }
         //6.返回
         return Result.ok(shops);
@@ -0,0 +1,170 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.utils.RedisDelayQueue;
+import com.hmdp.utils.TimingWheel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Collectors;
+
+/**
+ * 超时未支付订单的取消
+ * <p>
+ * 1.订单落库后以 落库时间 + payTimeout 为到期时间加入Redis延时队列 delay:{order-expiry}；
+ * 2.各节点每 pollInterval 认领 prefetch 内到期的一批任务，放入本地时间轮，到期时刻进入待取消队列；
+ * 3.取消线程批量取出：数据库中仍未支付的订单改为已取消并归还数据库库存，
+ * 再对这批任务中所有已取消的订单逐个执行 seckill-release.lua 原子地归还Redis库存、移除下单用户，最后确认任务；
+ * 4.中途失败的任务不确认，租约过期后被重新认领：数据库中已取消的订单不会再次取消，
+ * 但仍会执行归还，释放脚本按订单id记录在 seckill:released:{voucherId} 中，已归还过的订单不会重复归还
+ */
+@Slf4j
+@Component
+public class VoucherOrderExpiryManager {
+
+    private static final String TOPIC = "order-expiry";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private IVoucherOrderServiceImpl voucherOrderService;
+    @Resource
+    private SeckillStockDispatcher seckillStockDispatcher;
+    @Resource
+    private SeckillSoldOutRegistry seckillSoldOutRegistry;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private static final ExecutorService EXPIRY_EXECUTOR =
+            Executors.newSingleThreadExecutor(new NamedThreadFactory("seckill-order-expiry-", true));
+
+    private RedisDelayQueue delayQueue;
+    // 10毫秒一格、每层64格的时间轮
+    private TimingWheel timingWheel;
+    // 已到期、等待取消的订单id
+    private final BlockingQueue<String> dueOrders = new LinkedBlockingQueue<>();
+    private Counter cancelledCounter;
+
+    private boolean enabled() {
+        return seckillProperties.getExpiry().isEnabled();
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled()) {
+            return;
+        }
+        delayQueue = new RedisDelayQueue(stringRedisTemplate, TOPIC);
+        timingWheel = new TimingWheel("seckill-order-expiry-wheel", 10, 64);
+        cancelledCounter = Counter.builder("seckill.order.expired")
+                .description("超时未支付被取消的秒杀订单数")
+                .register(meterRegistry);
+        EXPIRY_EXECUTOR.submit(new OrderExpiryHandler());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (timingWheel != null) {
+            timingWheel.stop();
+        }
+    }
+
+    /**
+     * 订单落库后调用，加入延时队列
+     */
+    public void schedule(List<VoucherOrder> orders) {
+        if (!enabled()) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() + seckillProperties.getExpiry().getPayTimeout() * 1000;
+        Map<String, Long> deadlines = new HashMap<>(orders.size());
+        for (VoucherOrder order : orders) {
+            deadlines.put(order.getId().toString(), deadline);
+        }
+        delayQueue.offer(deadlines);
+    }
+
+    /**
+     * 认领即将到期的任务，按到期时间放入时间轮，认领满一批时继续认领
+     */
+    @Scheduled(fixedDelayString = "${seckill.expiry.poll-interval:1000}")
+    public void poll() {
+        if (!enabled()) {
+            return;
+        }
+        SeckillProperties.Expiry config = seckillProperties.getExpiry();
+        try {
+            Map<String, Long> tasks;
+            do {
+                tasks = delayQueue.claim(System.currentTimeMillis(), config.getPrefetch(), config.getBatchSize(), config.getLease());
+                tasks.forEach((orderId, deadline) -> timingWheel.schedule(deadline, () -> dueOrders.offer(orderId)));
+            } while (tasks.size() >= config.getBatchSize());
+        } catch (Exception e) {
+            log.error("认领超时订单任务异常", e);
+        }
+    }
+
+    // 批量取消到期的订单
+    private class OrderExpiryHandler implements Runnable {
+
+        @Override
+        public void run() {
+            List<String> batch = new ArrayList<>();
+            while (true) {
+                try {
+                    // 1.等待到期的订单，之后一次取出已到期的订单
+                    batch.add(dueOrders.take());
+                    dueOrders.drainTo(batch, seckillProperties.getExpiry().getBatchSize() - 1);
+                    // 2.取消并确认
+                    expire(batch);
+                    delayQueue.ack(batch);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    // 不确认，租约过期后重新认领
+                    log.error("取消超时订单异常", e);
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    private void expire(List<String> orderIds) {
+        List<Long> ids = orderIds.stream().map(Long::valueOf).collect(Collectors.toList());
+        // 1.数据库中取消仍未支付的订单并归还库存
+        List<VoucherOrder> cancelled = voucherOrderService.cancelUnpaidOrders(ids);
+        // 2.归还Redis库存并移除下单用户；不依赖本次取消的结果，上次取消后归还失败的订单在这里补上
+        List<VoucherOrder> toRelease = voucherOrderService.query()
+                .in("id", ids)
+                .eq("status", 4)
+                .list();
+        Set<Long> vouchers = new HashSet<>();
+        for (VoucherOrder order : toRelease) {
+            if (seckillStockDispatcher.release(order.getVoucherId(), order.getUserId(), order.getId())) {
+                vouchers.add(order.getVoucherId());
+            }
+        }
+        // 3.有了库存，清除售罄标记
+        vouchers.forEach(seckillSoldOutRegistry::reset);
+        cancelledCounter.increment(cancelled.size());
+        log.debug("取消超时未支付订单{}个，归还Redis库存的优惠券{}个", cancelled.size(), vouchers.size());
+    }
+}
@@ -0,0 +1,181 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.util.RuntimeUtil;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.OrderQueue;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillKeys;
+import io.lettuce.core.StreamMessage;
+import io.lettuce.core.XAutoClaimArgs;
+import io.lettuce.core.api.async.RedisStreamAsyncCommands;
+import io.lettuce.core.models.stream.ClaimedMessages;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订单消息的pending-list恢复任务
+ * <p>
+ * 与消费线程并行运行，依次处理登记表中的每个订单stream：
+ * 1.通过XPENDING读取投递次数，超过 maxDeliveries 的消息转入同一slot的死信队列 stream.orders.dlq:{voucherId}
+ * 2.通过XAUTOCLAIM认领任意消费者（包括已宕机实例）名下空闲过久的消息，重新分发到分区线程处理
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "seckill.order", name = "queue", havingValue = OrderQueue.REDIS_STREAM, matchIfMissing = true)
+public class VoucherOrderRecovery {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisStreamOrderQueue redisStreamOrderQueue;
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private MeterRegistry meterRegistry;
+    @Resource
+    private VoucherOrderStreamRegistry voucherOrderStreamRegistry;
+    @Resource
+    private VoucherOrderStatusTracker voucherOrderStatusTracker;
+
+    private static final DefaultRedisScript<Long> DEAD_LETTER_SCRIPT;
+
+    static {
+        DEAD_LETTER_SCRIPT = new DefaultRedisScript<>();
+        DEAD_LETTER_SCRIPT.setLocation(new ClassPathResource("deadletter.lua"));
+        DEAD_LETTER_SCRIPT.setResultType(Long.class);
+    }
+
+    // 认领消息使用的消费者名称
+    private String consumerName;
+
+    private Counter recoveredCounter;
+    private Counter deadLetterCounter;
+
+    @PostConstruct
+    public void init() {
+        consumerName = NetUtil.getLocalHostName() + "-" + RuntimeUtil.getPid() + "-recovery";
+        recoveredCounter = Counter.builder("seckill.order.recovered")
+                .description("通过XAUTOCLAIM重新投递的订单消息数")
+                .register(meterRegistry);
+        deadLetterCounter = Counter.builder("seckill.order.dead-lettered")
+                .description("超过最大投递次数转入死信队列的订单消息数")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${seckill.order.recovery-interval:5000}")
+    public void recover() {
+        for (String queueName : voucherOrderStreamRegistry.streams()) {
+            try {
+                // 1.投递次数超限的消息转入死信队列
+                deadLetter(queueName);
+                // 2.认领空闲消息并重新投递
+                claim(queueName);
+            } catch (Exception e) {
+                log.error("恢复pending订单异常，stream:{}", queueName, e);
+            }
+        }
+    }
+
+    /**
+     * XPENDING stream.orders:{voucherId} g1 - + n，投递次数达到上限且已空闲的消息转入死信队列
+     */
+    private void deadLetter(String queueName) {
+        SeckillProperties.Order config = seckillProperties.getOrder();
+        PendingMessages pending = stringRedisTemplate.opsForStream().pending(
+                queueName, RedisConstants.SECKILL_ORDER_GROUP, Range.unbounded(), config.getBatchSize());
+        if (pending == null || pending.isEmpty()) {
+            return;
+        }
+        for (PendingMessage message : pending) {
+            if (message.getTotalDeliveryCount() < config.getMaxDeliveries()
+                    || message.getElapsedTimeSinceLastDelivery().toMillis() < config.getRecoveryMinIdle()) {
+                continue;
+            }
+            // 转入死信队列前读出订单，转移后订单标记为失败
+            List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                    .range(queueName, Range.closed(message.getIdAsString(), message.getIdAsString()));
+            stringRedisTemplate.execute(DEAD_LETTER_SCRIPT,
+                    Arrays.asList(queueName, SeckillKeys.deadLetterKey(queueName)),
+                    RedisConstants.SECKILL_ORDER_GROUP,
+                    message.getIdAsString(),
+                    String.valueOf(message.getTotalDeliveryCount()),
+                    message.getConsumerName());
+            deadLetterCounter.increment();
+            if (records != null && !records.isEmpty()) {
+                voucherOrderStatusTracker.failed(Collections.singletonList(
+                        BeanUtil.fillBeanWithMap(records.get(0).getValue(), new VoucherOrder(), false)));
+            }
+            log.error("订单消息{}投递{}次仍失败，已转入死信队列", message.getIdAsString(), message.getTotalDeliveryCount());
+        }
+    }
+
+    /**
+     * XAUTOCLAIM stream.orders:{voucherId} g1 host-pid-recovery minIdle 0-0 COUNT n，直到遍历完整个pending-list
+     */
+    private void claim(String queueName) {
+        SeckillProperties.Order config = seckillProperties.getOrder();
+        String start = "0-0";
+        do {
+            ClaimedMessages<byte[], byte[]> claimed = autoClaim(queueName, start, config.getRecoveryMinIdle(), config.getBatchSize());
+            if (claimed == null) {
+                return;
+            }
+            List<MapRecord<String, Object, Object>> records = new ArrayList<>(claimed.getMessages().size());
+            for (StreamMessage<byte[], byte[]> message : claimed.getMessages()) {
+                // 已被裁剪的消息body为空，直接跳过
+                if (message.getBody() == null || message.getBody().isEmpty()) {
+                    continue;
+                }
+                Map<Object, Object> value = new HashMap<>(message.getBody().size());
+                message.getBody().forEach((k, v) ->
+                        value.put(new String(k, StandardCharsets.UTF_8), new String(v, StandardCharsets.UTF_8)));
+                records.add(StreamRecords.newRecord()
+                        .in(queueName)
+                        .withId(RecordId.of(message.getId()))
+                        .ofMap(value));
+            }
+            if (!records.isEmpty()) {
+                redisStreamOrderQueue.dispatchOrders(records);
+                recoveredCounter.increment(records.size());
+            }
+            start = claimed.getId();
+        } while (!"0-0".equals(start));
+    }
+
+    private ClaimedMessages<byte[], byte[]> autoClaim(String queueName, String start, long minIdle, long count) {
+        return stringRedisTemplate.execute((RedisCallback<ClaimedMessages<byte[], byte[]>>) connection -> {
+            @SuppressWarnings("unchecked")
+            RedisStreamAsyncCommands<byte[], byte[]> commands =
+                    (RedisStreamAsyncCommands<byte[], byte[]>) connection.getNativeConnection();
+            XAutoClaimArgs<byte[]> args = XAutoClaimArgs.Builder.xautoclaim(
+                    io.lettuce.core.Consumer.from(RedisConstants.SECKILL_ORDER_GROUP.getBytes(StandardCharsets.UTF_8),
+                            consumerName.getBytes(StandardCharsets.UTF_8)),
+                    Duration.ofMillis(minIdle), start).count(count);
+            try {
+                return commands.xautoclaim(queueName.getBytes(StandardCharsets.UTF_8), args).get(10, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                throw new IllegalStateException("XAUTOCLAIM执行失败", e);
+            }
+        });
+    }
+}
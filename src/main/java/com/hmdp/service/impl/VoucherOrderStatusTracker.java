@@ -0,0 +1,184 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.utils.SeckillKeys;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 秒杀订单状态
+ * <p>
+ * 每个订单一个状态hash seckill:status:{orderId}，字段 status、userId、voucherId，带过期时间：
+ * 1.秒杀脚本返回成功后写入 QUEUED，status 使用HSETNX，消费线程先一步写入的结果不会被覆盖；
+ * 2.订单落库后改为 CREATED，进程内队列落库失败或stream消息转入死信队列后改为 FAILED；
+ * 3.查询接口支持长轮询：状态还是 QUEUED 时挂起请求，本实例落库时直接唤醒，
+ * 其他实例落库的订单由定时任务批量检查状态后唤醒，超时返回当前状态
+ */
+@Slf4j
+@Component
+public class VoucherOrderStatusTracker {
+
+    public static final String QUEUED = "QUEUED";
+    public static final String CREATED = "CREATED";
+    public static final String FAILED = "FAILED";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private IVoucherOrderServiceImpl voucherOrderService;
+
+    // 等待订单状态变化的长轮询请求
+    private final Map<Long, List<DeferredResult<Result>>> waiters = new ConcurrentHashMap<>();
+
+    /**
+     * 秒杀成功，订单进入队列
+     */
+    public void queued(Long orderId, Long userId, Long voucherId) {
+        String key = SeckillKeys.statusKey(orderId);
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                operations.opsForHash().putIfAbsent(key, "status", QUEUED);
+                operations.opsForHash().putAll(key, fields(userId, voucherId));
+                operations.expire(key, seckillProperties.getOrder().getStatusTtl(), TimeUnit.SECONDS);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 订单已落库
+     */
+    public void created(List<VoucherOrder> orders) {
+        update(orders, CREATED);
+    }
+
+    /**
+     * 订单落库失败且不会再重试
+     */
+    public void failed(List<VoucherOrder> orders) {
+        update(orders, FAILED);
+    }
+
+    private void update(List<VoucherOrder> orders, String status) {
+        long ttl = seckillProperties.getOrder().getStatusTtl();
+        try {
+            stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Object execute(RedisOperations operations) {
+                    for (VoucherOrder order : orders) {
+                        String key = SeckillKeys.statusKey(order.getId());
+                        Map<String, String> fields = fields(order.getUserId(), order.getVoucherId());
+                        fields.put("status", status);
+                        operations.opsForHash().putAll(key, fields);
+                        operations.expire(key, ttl, TimeUnit.SECONDS);
+                    }
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            // 状态只用于查询，写入失败不影响订单
+            log.error("更新订单状态异常", e);
+        }
+        for (VoucherOrder order : orders) {
+            complete(order.getId(), status);
+        }
+    }
+
+    /**
+     * 查询订单状态，wait大于0且订单还在队列中时最多挂起wait毫秒
+     */
+    public DeferredResult<Result> watch(Long orderId, Long userId, long wait) {
+        long timeout = Math.min(Math.max(wait, 0), seckillProperties.getOrder().getStatusMaxWait());
+        DeferredResult<Result> result = new DeferredResult<>(timeout > 0 ? timeout : null);
+        // 1.查询当前状态
+        String status = status(orderId, userId);
+        if (status == null) {
+            result.setResult(Result.fail("订单不存在"));
+            return result;
+        }
+        if (!QUEUED.equals(status) || timeout == 0) {
+            result.setResult(Result.ok(status));
+            return result;
+        }
+        // 2.挂起请求，超时返回当前状态
+        List<DeferredResult<Result>> list = waiters.computeIfAbsent(orderId, k -> new CopyOnWriteArrayList<>());
+        list.add(result);
+        result.onTimeout(() -> result.setResult(Result.ok(QUEUED)));
+        result.onCompletion(() -> waiters.computeIfPresent(orderId, (k, v) -> {
+            v.remove(result);
+            return v.isEmpty() ? null : v;
+        }));
+        return result;
+    }
+
+    /**
+     * 定时批量查询被挂起订单的状态，唤醒已由其他实例落库的订单
+     */
+    @Scheduled(fixedDelayString = "${seckill.order.status-check-interval:200}")
+    public void check() {
+        if (waiters.isEmpty()) {
+            return;
+        }
+        List<Long> orderIds = new ArrayList<>(waiters.keySet());
+        List<Object> statuses = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                for (Long orderId : orderIds) {
+                    operations.opsForHash().get(SeckillKeys.statusKey(orderId), "status");
+                }
+                return null;
+            }
+        });
+        for (int i = 0; i < orderIds.size(); i++) {
+            Object status = statuses.get(i);
+            if (status != null && !QUEUED.equals(status)) {
+                complete(orderIds.get(i), status.toString());
+            }
+        }
+    }
+
+    private void complete(Long orderId, String status) {
+        List<DeferredResult<Result>> list = waiters.remove(orderId);
+        if (list != null) {
+            list.forEach(result -> result.setResult(Result.ok(status)));
+        }
+    }
+
+    /**
+     * 当前用户的订单状态，状态已过期时查询数据库，不存在或不属于该用户时返回null
+     */
+    private String status(Long orderId, Long userId) {
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(SeckillKeys.statusKey(orderId));
+        if (!entries.isEmpty()) {
+            return userId.toString().equals(entries.get("userId")) ? (String) entries.get("status") : null;
+        }
+        VoucherOrder order = voucherOrderService.getById(orderId);
+        return order != null && userId.equals(order.getUserId()) ? CREATED : null;
+    }
+
+    private static Map<String, String> fields(Long userId, Long voucherId) {
+        Map<String, String> fields = new HashMap<>(3);
+        fields.put("userId", userId.toString());
+        fields.put("voucherId", voucherId.toString());
+        return fields;
+    }
+}
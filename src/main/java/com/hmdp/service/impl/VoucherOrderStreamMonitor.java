@@ -0,0 +1,182 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.utils.SeckillKeys;
+import io.lettuce.core.XTrimArgs;
+import io.lettuce.core.api.async.RedisStreamAsyncCommands;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 订单stream的积压治理，依次处理登记表中的每个订单stream
+ * <p>
+ * 1.定时 XTRIM MINID 裁剪已确认的消息：裁剪点取所有消费者组中最早的未确认消息，
+ * 没有未确认消息时取最后投递的消息，保证未投递、未确认的消息永远不会被裁掉
+ * 2.导出所有stream的总长度、pending数量、最早pending消息的等待时长
+ * 3.某张优惠券的积压超过阈值时，该券的秒杀下单直接快速失败，保护落库线程
+ */
+@Slf4j
+@Component
+public class VoucherOrderStreamMonitor {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private MeterRegistry meterRegistry;
+    @Resource
+    private VoucherOrderStreamRegistry voucherOrderStreamRegistry;
+
+    // 由定时任务刷新，下单时只读内存，不访问Redis
+    private final AtomicLong streamLength = new AtomicLong();
+    private final AtomicLong pendingCount = new AtomicLong();
+    private final AtomicLong oldestPendingAge = new AtomicLong();
+    // 每张优惠券（所有分段合计）的积压消息数
+    private volatile Map<Long, Long> voucherBacklog = new HashMap<>();
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("seckill.order.stream.length", streamLength, AtomicLong::get)
+                .description("订单stream中的消息数，裁剪后近似等于积压量")
+                .register(meterRegistry);
+        Gauge.builder("seckill.order.pending", pendingCount, AtomicLong::get)
+                .description("已投递未确认的订单消息数")
+                .register(meterRegistry);
+        Gauge.builder("seckill.order.pending.oldest.age", oldestPendingAge, AtomicLong::get)
+                .description("最早一条未确认消息的等待时长")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 优惠券的积压是否超过阈值，阈值小于等于0时不限制
+     */
+    public boolean isOverloaded(Long voucherId) {
+        long maxBacklog = seckillProperties.getOrder().getMaxBacklog();
+        return maxBacklog > 0 && voucherBacklog.getOrDefault(voucherId, 0L) > maxBacklog;
+    }
+
+    @Scheduled(fixedDelayString = "${seckill.order.trim-interval:1000}")
+    public void refresh() {
+        long totalLength = 0;
+        long totalPending = 0;
+        long oldestAge = 0;
+        Map<Long, Long> backlog = new HashMap<>();
+        for (String queueName : voucherOrderStreamRegistry.streams()) {
+            StreamStat stat = refresh(queueName);
+            if (stat == null) {
+                continue;
+            }
+            totalLength += stat.length;
+            totalPending += stat.pending;
+            oldestAge = Math.max(oldestAge, stat.oldestPendingAge);
+            Long voucherId = SeckillKeys.voucherIdOf(queueName);
+            if (voucherId != null) {
+                backlog.merge(voucherId, stat.length, Long::sum);
+            }
+        }
+        streamLength.set(totalLength);
+        pendingCount.set(totalPending);
+        oldestPendingAge.set(oldestAge);
+        voucherBacklog = backlog;
+    }
+
+    private static class StreamStat {
+        private long length;
+        private long pending;
+        private long oldestPendingAge;
+    }
+
+    /**
+     * 裁剪单个订单stream并统计积压，stream不存在或出错时返回null
+     */
+    private StreamStat refresh(String queueName) {
+        try {
+            Boolean exists = stringRedisTemplate.hasKey(queueName);
+            if (!Boolean.TRUE.equals(exists)) {
+                return null;
+            }
+            StreamStat stat = new StreamStat();
+            // 1.计算安全裁剪点
+            String minId = null;
+            long pending = 0;
+            StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(queueName);
+            for (int i = 0; i < groups.size(); i++) {
+                StreamInfo.XInfoGroup group = groups.get(i);
+                String groupMin = group.lastDeliveredId();
+                if (group.pendingCount() > 0) {
+                    PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(queueName, group.groupName());
+                    groupMin = summary.minMessageId();
+                    pending += summary.getTotalPendingMessages();
+                }
+                if (minId == null || compareId(groupMin, minId) < 0) {
+                    minId = groupMin;
+                }
+            }
+            stat.pending = pending;
+            stat.oldestPendingAge = pending > 0 ? System.currentTimeMillis() - timestampOf(minId) : 0;
+            // 2.XTRIM stream.orders:{voucherId} MINID ~ minId，没有消费者组时不裁剪
+            if (minId != null && !"0-0".equals(minId)) {
+                Long trimmed = trim(queueName, minId);
+                if (trimmed != null && trimmed > 0) {
+                    log.debug("裁剪订单stream {} {}条，裁剪点{}", queueName, trimmed, minId);
+                }
+            }
+            // 3.刷新stream长度
+            Long size = stringRedisTemplate.opsForStream().size(queueName);
+            stat.length = size == null ? 0 : size;
+            return stat;
+        } catch (Exception e) {
+            log.error("订单stream治理异常，stream:{}", queueName, e);
+            return null;
+        }
+    }
+
+    private Long trim(String queueName, String minId) {
+        return stringRedisTemplate.execute((RedisCallback<Long>) connection -> {
+            @SuppressWarnings("unchecked")
+            RedisStreamAsyncCommands<byte[], byte[]> commands =
+                    (RedisStreamAsyncCommands<byte[], byte[]>) connection.getNativeConnection();
+            try {
+                return commands.xtrim(queueName.getBytes(StandardCharsets.UTF_8),
+                        new XTrimArgs().minId(minId).approximateTrimming()).get(10, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                throw new IllegalStateException("XTRIM执行失败", e);
+            }
+        });
+    }
+
+    private static long timestampOf(String id) {
+        int i = id.indexOf('-');
+        return Long.parseLong(i < 0 ? id : id.substring(0, i));
+    }
+
+    private static int compareId(String a, String b) {
+        int c = Long.compare(timestampOf(a), timestampOf(b));
+        if (c != 0) {
+            return c;
+        }
+        return Long.compare(sequenceOf(a), sequenceOf(b));
+    }
+
+    private static long sequenceOf(String id) {
+        int i = id.indexOf('-');
+        return i < 0 ? 0 : Long.parseLong(id.substring(i + 1));
+    }
+}
@@ -0,0 +1,177 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillKeys;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 订单stream登记表
+ * <p>
+ * 每张秒杀券（分段时每个分段）有自己的订单stream，新建秒杀券时登记到 seckill:streams，
+ * 消费线程、恢复任务、积压治理都从这里获取需要处理的stream；旧的全局 stream.orders 始终保留，用于消费存量消息；
+ * 优惠券结束超过 streamPruneInterval、且消息全部投递并确认后，stream从登记表中移除并删除，避免登记表只增不减
+ */
+@Slf4j
+@Component
+public class VoucherOrderStreamRegistry {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    private static final DefaultRedisScript<Long> PRUNE_SCRIPT;
+
+    static {
+        PRUNE_SCRIPT = new DefaultRedisScript<>();
+        PRUNE_SCRIPT.setLocation(new ClassPathResource("stream-prune.lua"));
+        PRUNE_SCRIPT.setResultType(Long.class);
+    }
+
+    private volatile List<String> streams = Collections.singletonList(RedisConstants.SECKILL_ORDER_STREAM);
+    // 已确认创建过消费者组的stream
+    private final Set<String> grouped = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void init() {
+        refresh();
+    }
+
+    /**
+     * 登记stream并创建消费者组
+     */
+    public void register(String streamKey) {
+        createGroupIfAbsent(streamKey);
+        stringRedisTemplate.opsForSet().add(RedisConstants.SECKILL_STREAMS_KEY, streamKey);
+    }
+
+    public List<String> streams() {
+        return streams;
+    }
+
+    /**
+     * 分配给第index个消费线程的stream，每个stream在一个实例内只由一个线程读取
+     */
+    public List<String> streamsOf(int index, int workers) {
+        List<String> all = streams;
+        List<String> assigned = new ArrayList<>();
+        for (String stream : all) {
+            if ((stream.hashCode() & Integer.MAX_VALUE) % workers == index) {
+                assigned.add(stream);
+            }
+        }
+        return assigned;
+    }
+
+    @Scheduled(fixedDelayString = "${seckill.order.stream-refresh-interval:5000}")
+    public void refresh() {
+        try {
+            Set<String> members = stringRedisTemplate.opsForSet().members(RedisConstants.SECKILL_STREAMS_KEY);
+            List<String> list = new ArrayList<>();
+            list.add(RedisConstants.SECKILL_ORDER_STREAM);
+            if (members != null) {
+                list.addAll(new TreeSet<>(members));
+            }
+            for (String stream : list) {
+                createGroupIfAbsent(stream);
+            }
+            streams = Collections.unmodifiableList(list);
+        } catch (Exception e) {
+            log.error("刷新订单stream列表异常", e);
+        }
+    }
+
+    /**
+     * 创建消费者组，stream不存在时一并创建，组已存在时忽略
+     * XGROUP CREATE stream.orders:{voucherId} g1 0 MKSTREAM
+     */
+    private void createGroupIfAbsent(String streamKey) {
+        if (grouped.contains(streamKey)) {
+            return;
+        }
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands()
+                    .xGroupCreate(streamKey.getBytes(StandardCharsets.UTF_8), RedisConstants.SECKILL_ORDER_GROUP,
+                            ReadOffset.from("0"), true));
+        } catch (Exception e) {
+            if (!String.valueOf(e.getMessage()).contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+        grouped.add(streamKey);
+    }
+
+    /**
+     * 清理已结束且消费完毕的优惠券stream
+     */
+    @Scheduled(fixedDelayString = "${seckill.order.stream-prune-interval:600000}",
+            initialDelayString = "${seckill.order.stream-prune-interval:600000}")
+    public void prune() {
+        try {
+            Set<String> members = stringRedisTemplate.opsForSet().members(RedisConstants.SECKILL_STREAMS_KEY);
+            if (members == null || members.isEmpty()) {
+                return;
+            }
+            // 1.查询各stream所属优惠券的结束时间
+            Map<Long, List<String>> byVoucher = new HashMap<>();
+            for (String stream : members) {
+                Long voucherId = SeckillKeys.voucherIdOf(stream);
+                if (voucherId != null) {
+                    byVoucher.computeIfAbsent(voucherId, k -> new ArrayList<>()).add(stream);
+                }
+            }
+            Map<Long, LocalDateTime> endTimes = new HashMap<>();
+            for (SeckillVoucher voucher : seckillVoucherService.listByIds(byVoucher.keySet())) {
+                endTimes.put(voucher.getVoucherId(), voucher.getEndTime());
+            }
+            // 2.结束超过一个清理间隔之后不会再有新订单写入，已删除的优惠券同样处理
+            LocalDateTime endedBefore = LocalDateTime.now()
+                    .minus(Duration.ofMillis(seckillProperties.getOrder().getStreamPruneInterval()));
+            int pruned = 0;
+            for (Map.Entry<Long, List<String>> entry : byVoucher.entrySet()) {
+                LocalDateTime endTime = endTimes.get(entry.getKey());
+                if (endTime != null && endTime.isAfter(endedBefore)) {
+                    continue;
+                }
+                for (String stream : entry.getValue()) {
+                    // 3.先从登记表移除，再由脚本原子地检查消息全部投递并确认后删除，没有删除的重新登记；
+                    // 删除之后补发的订单由 order-publish.lua 重新创建stream和消费者组，并重新登记
+                    stringRedisTemplate.opsForSet().remove(RedisConstants.SECKILL_STREAMS_KEY, stream);
+                    Long deleted = stringRedisTemplate.execute(PRUNE_SCRIPT, Collections.singletonList(stream));
+                    if (deleted != null && deleted == 1) {
+                        grouped.remove(stream);
+                        pruned++;
+                    } else {
+                        stringRedisTemplate.opsForSet().add(RedisConstants.SECKILL_STREAMS_KEY, stream);
+                    }
+                }
+            }
+            if (pruned > 0) {
+                log.info("已清理{}个结束的订单stream", pruned);
+                refresh();
+            }
+        } catch (Exception e) {
+            log.error("清理订单stream异常", e);
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.OrderQueue;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+/**
+ * 秒杀订单的本地预写日志（WAL）
+ * <p>
+ * 开启后，秒杀成功的订单在返回给用户之前先追加到本地日志并刷盘，Redis丢数据时订单仍可从本地恢复：
+ * 1.日志按 segmentSize 切分为多个文件 wal-{序号}.log，每个文件整体内存映射，记录定长32字节：
+ * orderId(8) userId(8) voucherId(8) magic(4) crc32(4)，未写入的区域全为0，校验失败即视为日志末尾；
+ * 2.组提交：请求线程写入映射内存后等待刷盘，刷盘线程每 flushInterval 毫秒执行一次force，
+ * 一次force让这段时间内所有请求的订单同时落盘；
+ * 3.启动时回放历史文件，数据库中不存在的订单重新投递到订单队列，并写入新的日志文件，之后删除历史文件；
+ * 落库失败后已经归还库存的订单不再投递；
+ * 4.运行中定时检查已写满的文件，其中的订单全部落库（或已归还库存）后删除该文件；
+ * 5.请求最多等待 flushTimeout 毫秒，刷盘持续失败或刷盘线程退出时不会一直占用请求线程；
+ * 刷盘线程距上次正常运行的时间记录在 seckill.wal.flush.lag 中，超过 flushTimeout 时健康检查为DOWN
+ */
+@Slf4j
+@Component
+public class VoucherOrderWal implements HealthIndicator {
+
+    private static final int RECORD_SIZE = 32;
+    private static final int MAGIC = 0x57414C31;
+    private static final String FILE_PREFIX = "wal-";
+    private static final String FILE_SUFFIX = ".log";
+    // 每次查询数据库核对的订单数
+    private static final int CHECK_BATCH = 500;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private IVoucherOrderServiceImpl voucherOrderService;
+    @Resource
+    private OrderQueue orderQueue;
+    @Resource
+    private SeckillStockDispatcher seckillStockDispatcher;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private static final ExecutorService FLUSH_EXECUTOR =
+            Executors.newSingleThreadExecutor(new NamedThreadFactory("seckill-wal-flush-", true));
+
+    private File dir;
+    // 正在写入的文件
+    private long segmentIndex;
+    private MappedByteBuffer segment;
+    // 已写入、已刷盘的记录总数，组提交按记录数判断是否已落盘
+    private long written;
+    private long durable;
+    private final Object flushLock = new Object();
+    private volatile boolean running;
+    // 刷盘线程最近一次正常运行的时间，毫秒
+    private volatile long lastFlushed;
+    private Counter flushFailures;
+    private Counter waitTimeouts;
+
+    private boolean enabled() {
+        return seckillProperties.getWal().isEnabled();
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled()) {
+            return;
+        }
+        dir = new File(seckillProperties.getWal().getDir());
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("无法创建WAL目录:" + dir.getAbsolutePath());
+        }
+        // 1.回放历史文件之前先打开新的文件，回放出的订单写入新文件
+        List<File> history = segments();
+        segmentIndex = history.isEmpty() ? 0 : indexOf(history.get(history.size() - 1)) + 1;
+        segment = map(segmentIndex);
+        running = true;
+        lastFlushed = System.currentTimeMillis();
+        flushFailures = Counter.builder("seckill.wal.flush.failures")
+                .description("WAL刷盘失败次数")
+                .register(meterRegistry);
+        waitTimeouts = Counter.builder("seckill.wal.wait.timeouts")
+                .description("请求等待WAL刷盘超时的次数")
+                .register(meterRegistry);
+        Gauge.builder("seckill.wal.flush.lag", this, VoucherOrderWal::flushLag)
+                .description("刷盘线程距上次正常运行的时间，毫秒")
+                .register(meterRegistry);
+        FLUSH_EXECUTOR.submit(this::flushLoop);
+        // 2.回放
+        replay(history);
+    }
+
+    /**
+     * 追加订单并等待刷盘，正常返回时订单已持久化到本地磁盘
+     * @throws IllegalStateException 超过 flushTimeout 仍未刷盘
+     */
+    public void append(Long orderId, Long userId, Long voucherId) {
+        if (!enabled()) {
+            return;
+        }
+        long ticket = write(orderId, userId, voucherId);
+        long deadline = System.currentTimeMillis() + seckillProperties.getWal().getFlushTimeout();
+        synchronized (flushLock) {
+            while (durable < ticket) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    waitTimeouts.increment();
+                    throw new IllegalStateException("等待WAL刷盘超时");
+                }
+                try {
+                    flushLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("等待WAL刷盘被中断", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 写入映射内存，返回写入后的记录总数
+     */
+    private synchronized long write(Long orderId, Long userId, Long voucherId) {
+        if (segment.remaining() < RECORD_SIZE) {
+            rotate();
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.putLong(orderId).putLong(userId).putLong(voucherId).putInt(MAGIC);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, RECORD_SIZE - 4);
+        record.putInt((int) crc.getValue());
+        segment.put(record.array());
+        return ++written;
+    }
+
+    /**
+     * 当前文件写满，刷盘后切换到新文件
+     */
+    private void rotate() {
+        try {
+            segment.force();
+            synchronized (flushLock) {
+                durable = written;
+                flushLock.notifyAll();
+            }
+            segment = map(++segmentIndex);
+        } catch (IOException e) {
+            throw new IllegalStateException("切换WAL文件失败", e);
+        }
+    }
+
+    /**
+     * 刷盘线程：有新写入时force，唤醒等待的请求线程
+     */
+    private void flushLoop() {
+        long interval = seckillProperties.getWal().getFlushInterval();
+        while (running) {
+            try {
+                long target;
+                MappedByteBuffer current;
+                synchronized (this) {
+                    target = written;
+                    current = segment;
+                }
+                if (target > durable) {
+                    current.force();
+                    synchronized (flushLock) {
+                        durable = Math.max(durable, target);
+                        flushLock.notifyAll();
+                    }
+                }
+                lastFlushed = System.currentTimeMillis();
+                TimeUnit.MILLISECONDS.sleep(interval);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                flushFailures.increment();
+                log.error("WAL刷盘异常", e);
+            }
+        }
+    }
+
+    /**
+     * 回放历史文件：数据库中不存在的订单写入新文件并重新投递，之后删除历史文件
+     */
+    private void replay(List<File> history) throws IOException {
+        for (File file : history) {
+            List<VoucherOrder> missing = missingOrders(read(file));
+            for (VoucherOrder order : missing) {
+                append(order.getId(), order.getUserId(), order.getVoucherId());
+                orderQueue.publish(order.getId(), order.getUserId(), order.getVoucherId());
+            }
+            if (!missing.isEmpty()) {
+                log.warn("WAL回放{}，重新投递{}个订单", file.getName(), missing.size());
+            }
+            if (!file.delete()) {
+                log.error("删除WAL文件失败:{}", file.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * 已写满的文件中订单全部落库后删除
+     */
+    @Scheduled(fixedDelayString = "${seckill.wal.cleanup-interval:60000}")
+    public void cleanup() {
+        if (!running) {
+            return;
+        }
+        try {
+            for (File file : segments()) {
+                if (indexOf(file) >= segmentIndex) {
+                    continue;
+                }
+                if (missingOrders(read(file)).isEmpty() && !file.delete()) {
+                    log.error("删除WAL文件失败:{}", file.getAbsolutePath());
+                }
+            }
+        } catch (Exception e) {
+            log.error("清理WAL文件异常", e);
+        }
+    }
+
+    private double flushLag() {
+        return running ? System.currentTimeMillis() - lastFlushed : 0;
+    }
+
+    /**
+     * 刷盘线程超过 flushTimeout 没有正常运行时为DOWN
+     */
+    @Override
+    public Health health() {
+        if (!running) {
+            return Health.up().withDetail("enabled", enabled()).build();
+        }
+        long lag = (long) flushLag();
+        Health.Builder builder = lag > seckillProperties.getWal().getFlushTimeout() ? Health.down() : Health.up();
+        return builder.withDetail("flushLag", lag).withDetail("segment", segmentIndex).build();
+    }
+
+    @PreDestroy
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        synchronized (this) {
+            segment.force();
+        }
+    }
+
+    /**
+     * 按批查询 tb_voucher_order，返回数据库中不存在、且没有归还库存的订单
+     */
+    private List<VoucherOrder> missingOrders(List<VoucherOrder> orders) {
+        List<VoucherOrder> missing = new ArrayList<>();
+        for (int i = 0; i < orders.size(); i += CHECK_BATCH) {
+            List<VoucherOrder> batch = orders.subList(i, Math.min(i + CHECK_BATCH, orders.size()));
+            Set<Long> exists = voucherOrderService.query().select("id")
+                    .in("id", batch.stream().map(VoucherOrder::getId).collect(Collectors.toList()))
+                    .list().stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+            for (VoucherOrder order : batch) {
+                if (!exists.contains(order.getId())
+                        && !seckillStockDispatcher.isReleased(order.getVoucherId(), order.getUserId(), order.getId())) {
+                    missing.add(order);
+                }
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * 读取文件中的有效记录，遇到校验失败的记录即结束
+     */
+    private static List<VoucherOrder> read(File file) throws IOException {
+        List<VoucherOrder> orders = new ArrayList<>();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] record = new byte[RECORD_SIZE];
+            while (buffer.remaining() >= RECORD_SIZE) {
+                buffer.get(record);
+                ByteBuffer r = ByteBuffer.wrap(record);
+                long orderId = r.getLong();
+                long userId = r.getLong();
+                long voucherId = r.getLong();
+                int magic = r.getInt();
+                int checksum = r.getInt();
+                CRC32 crc = new CRC32();
+                crc.update(record, 0, RECORD_SIZE - 4);
+                if (magic != MAGIC || checksum != (int) crc.getValue()) {
+                    break;
+                }
+                VoucherOrder order = new VoucherOrder();
+                order.setId(orderId);
+                order.setUserId(userId);
+                order.setVoucherId(voucherId);
+                orders.add(order);
+            }
+        }
+        return orders;
+    }
+
+    private MappedByteBuffer map(long index) throws IOException {
+        File file = new File(dir, String.format("%s%020d%s", FILE_PREFIX, index, FILE_SUFFIX));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            // 映射在通道关闭后仍然有效
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, seckillProperties.getWal().getSegmentSize());
+        }
+    }
+
+    private List<File> segments() {
+        File[] files = dir.listFiles((d, name) -> name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX));
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        return Arrays.stream(files).sorted(Comparator.comparingLong(VoucherOrderWal::indexOf)).collect(Collectors.toList());
+    }
+
+    private static long indexOf(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+    }
+}
@@ -0,0 +1,179 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订单落库，各种订单队列的消费线程都通过它写数据库
+ * 一人一单和重复投递都由 tb_voucher_order 的唯一索引保证，不加锁也不先查询
+ */
+@Slf4j
+@Component
+public class VoucherOrderWriter {
+
+    @Resource
+    private IVoucherOrderServiceImpl voucherOrderService;
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private MeterRegistry meterRegistry;
+    @Resource
+    private VoucherOrderStatusTracker voucherOrderStatusTracker;
+    @Resource
+    private VoucherOrderExpiryManager voucherOrderExpiryManager;
+    @Resource
+    private SeckillStockDispatcher seckillStockDispatcher;
+    @Resource
+    private SeckillSoldOutRegistry seckillSoldOutRegistry;
+
+    private Counter drainedCounter;
+    private Timer batchTimer;
+
+    @PostConstruct
+    public void init() {
+        drainedCounter = Counter.builder("seckill.order.drained")
+                .description("已落库的秒杀订单数，取其速率即为消费速度")
+                .register(meterRegistry);
+        batchTimer = Timer.builder("seckill.order.batch")
+                .description("每批订单的处理耗时")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 创建一批订单，返回即表示已落库并已更新订单状态，失败时抛出异常
+     * 只有确实落库的订单标记为已创建，被唯一索引忽略的订单（一人一单冲突、id冲突）标记为失败
+     */
+    public void write(List<VoucherOrder> orders) {
+        long start = System.nanoTime();
+        List<VoucherOrder> created = new ArrayList<>(orders.size());
+        List<VoucherOrder> skipped = new ArrayList<>();
+        RuntimeException failure = null;
+        if (seckillProperties.getOrder().isBatchEnabled()) {
+            try {
+                // 同一事务内聚合扣库存、多行插入，有订单被忽略时无法知道是哪些，全部查询确认
+                int inserted = voucherOrderService.createVoucherOrderBatch(orders);
+                (inserted == orders.size() ? created : skipped).addAll(orders);
+            } catch (RuntimeException e) {
+                // 整批已回滚，逐个写入，只让出问题的订单失败
+                log.warn("批量创建订单失败，逐个写入:{}", e.getMessage());
+                failure = writeEach(orders, created, skipped);
+            }
+        } else {
+            failure = writeEach(orders, created, skipped);
+        }
+        // 没有插入的订单：重复投递时同一订单已经落库，仍然是已创建；其余标记为失败
+        List<VoucherOrder> rejected = new ArrayList<>();
+        if (!skipped.isEmpty()) {
+            Set<Long> existing = voucherOrderService.queryCreatedIds(skipped);
+            for (VoucherOrder order : skipped) {
+                (existing.contains(order.getId()) ? created : rejected).add(order);
+            }
+        }
+        batchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        drainedCounter.increment(created.size());
+        voucherOrderStatusTracker.created(created);
+        voucherOrderStatusTracker.failed(rejected);
+        // 开始计算支付超时
+        voucherOrderExpiryManager.schedule(created);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * 逐个创建订单，每个订单一个事务，插入的订单放入created，被忽略的放入skipped；
+     * 某个订单失败时继续写入其余订单，返回第一个异常，失败的订单不在两个列表中
+     */
+    private RuntimeException writeEach(List<VoucherOrder> orders, List<VoucherOrder> created, List<VoucherOrder> skipped) {
+        RuntimeException failure = null;
+        for (VoucherOrder voucherOrder : orders) {
+            try {
+                if (voucherOrderService.createVoucherOrderIfAbsent(voucherOrder)) {
+                    created.add(voucherOrder);
+                } else {
+                    skipped.add(voucherOrder);
+                }
+            } catch (RuntimeException e) {
+                log.error("创建订单{}失败:{}", voucherOrder.getId(), e.getMessage());
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        return failure;
+    }
+
+    /**
+     * 进程内队列使用：落库失败时退避重试，数据库短暂不可用或死锁不会丢单；
+     * 重试用完后，这批订单中没有落库的归还Redis库存和一人一单资格，并标记为失败
+     */
+    public void writeOrRelease(List<VoucherOrder> orders) {
+        SeckillProperties.Order config = seckillProperties.getOrder();
+        long backoff = config.getWriteRetryBackoff();
+        for (int attempt = 0; ; attempt++) {
+            try {
+                write(orders);
+                return;
+            } catch (Exception e) {
+                if (attempt >= config.getWriteRetries()) {
+                    log.error("订单落库重试{}次后仍然失败，归还库存", attempt, e);
+                    break;
+                }
+                log.warn("订单落库失败，{}毫秒后重试:{}", backoff, e.getMessage());
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            backoff *= 2;
+        }
+        release(orders);
+    }
+
+    /**
+     * 归还没有落库的订单占用的Redis库存和一人一单资格，已经落库的订单（逐条写入时部分成功）不归还
+     */
+    private void release(List<VoucherOrder> orders) {
+        Set<Long> created;
+        try {
+            created = voucherOrderService.queryCreatedIds(orders);
+        } catch (Exception e) {
+            // 无法确认哪些已经落库，不能归还，留给库存核对处理
+            log.error("查询已落库订单异常，{}个订单没有归还库存", orders.size(), e);
+            voucherOrderStatusTracker.failed(orders);
+            return;
+        }
+        List<VoucherOrder> lost = new ArrayList<>(orders.size());
+        Set<Long> vouchers = new HashSet<>();
+        for (VoucherOrder order : orders) {
+            if (created.contains(order.getId())) {
+                continue;
+            }
+            lost.add(order);
+            try {
+                if (seckillStockDispatcher.release(order.getVoucherId(), order.getUserId(), order.getId())) {
+                    vouchers.add(order.getVoucherId());
+                }
+            } catch (Exception e) {
+                log.error("归还订单{}的库存异常", order.getId(), e);
+            }
+        }
+        vouchers.forEach(seckillSoldOutRegistry::reset);
+        voucherOrderStatusTracker.failed(lost);
+    }
+}
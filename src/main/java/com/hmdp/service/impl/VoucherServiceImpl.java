@@ -1,7 +1,7 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.config.SeckillProperties;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.Voucher;
@@ -9,27 +9,18 @@ import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
-import com.hmdp.utils.RedisConstants;
-import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.service.OrderQueue;
+import com.hmdp.utils.IdGenerator;
 import com.hmdp.utils.UserHolder;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
 import org.springframework.beans.BeanUtils;
-import org.springframework.core.io.ClassPathResource;
-import org.springframework.data.redis.connection.stream.*;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.context.request.async.DeferredResult;
 
-import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import java.time.Duration;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.*;
+import java.util.*;
 
 /**
  * <p>
@@ -47,11 +38,23 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private StringRedisTemplate stringRedisTemplate;
     @Resource
-    private RedisIdWorker redisIdWorker;
+    private IdGenerator idGenerator;
     @Resource
-    private IVoucherOrderServiceImpl voucherOrderService;
+    private SeckillProperties seckillProperties;
     @Resource
-    private RedissonClient redissonClient;
+    private VoucherOrderStreamMonitor voucherOrderStreamMonitor;
+    @Resource
+    private SeckillStockDispatcher seckillStockDispatcher;
+    @Resource
+    private OrderQueue orderQueue;
+    @Resource
+    private SeckillWindowGate seckillWindowGate;
+    @Resource
+    private VoucherOrderWal voucherOrderWal;
+    @Resource
+    private VoucherOrderStatusTracker voucherOrderStatusTracker;
+    @Resource
+    private SeckillStockPreheater seckillStockPreheater;
 
 
     @Override
@@ -74,196 +77,105 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        // 保存秒杀库存到Redis中
-        stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
-    }
-
-/*    //    开启阻塞队列
-    private BlockingQueue<VoucherOrder> orderTasks = new ArrayBlockingQueue<>(1024 * 1024);*/
-
-
-    //获取代理对象(事务)
-    private VoucherServiceImpl proxy;
-
-    // 消息队列的名字“orders”
-     private String queueName = "stream.orders";
-
-    //    开启线程池
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
-    //    在类初始化之后执行，因为当这个类初始化好了之后，随时都是有可能要执行的
-    @PostConstruct
-    public void init() {
-        SECKILL_ORDER_EXECUTOR.submit(
-                new VoucherOrderHandler()
-        );
-    }
-
-    // 用于线程池处理的任务
-// 当初始化完毕后，就会去从对列中去拿信息
-    public class VoucherOrderHandler implements Runnable {
-        @Override
-        public void run() {
-            while (true) {
-                try {
-                    // 1.获取消息队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS s1 >
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create(queueName, ReadOffset.lastConsumed())
-                    );
-//                    2.判断订单信息是否为空
-                    if (list == null || list.isEmpty()) {
-                        //如果为空，说明队列中没有信息，直接返回
-                        continue;
-                    }
-//                    3.解析数据
-                    MapRecord<String, Object, Object> entries = list.get(0);
-                    Map<Object, Object> value = entries.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), false);
-//                    4.创建订单
-                    handleVoucherOrder(voucherOrder);
-//                    5.确认消息 XACK stream.orders g1 id
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", entries.getId());
-                } catch (Exception e) {
-                    log.error("处理订单异常", e);
-//                    处理异常消息
-                    handlePendingList();
-                }
-            }
-        }
-
+        // 开启分桶时把数据库库存拆到多行
+        seckillVoucherService.initStock(voucher.getId(), voucher.getStock());
+        // 保存秒杀库存、时间窗口到Redis中
+        seckillStockDispatcher.initStock(seckillVoucher);
     }
 
     /**
-     * 从pending-list中取出信息，重新读取这些未处理的消息，并确保它们能够被正确处理。
+     * 秒杀券补货：数据库和Redis库存同时增加，并清除各节点的售罄标记
      */
-    private void handlePendingList() {
-        while (true) {
-            try {
-                // 1.获取pending-list中的订单信息。名字"stream.orders"    XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS s1 0
-                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                        Consumer.from("g1", "c1"),
-                        StreamReadOptions.empty(),
-                        StreamOffset.create(queueName, ReadOffset.from("0"))
-                );
-//                    2.判断订单信息是否为空
-                if (list == null || list.isEmpty()) {
-                    //如果为空，说明队列中没有信息，直接返回
-                    break;
-                }
-//                    3.解析数据
-                MapRecord<String, Object, Object> entries = list.get(0);
-                Map<Object, Object> value = entries.getValue();
-                VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), false);
-//                    4.创建订单
-                handleVoucherOrder(voucherOrder);
-                //5.确认消息 XACK stream.orders g1 id
-                stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", entries.getId());
-            } catch (Exception e) {
-                log.error("处理pendding订单异常", e);
-                try {
-                    Thread.sleep(20);
-                } catch (Exception ex) {
-                    e.printStackTrace();
-                }
-            }
+    @Override
+    @Transactional
+    public Result restockSeckillVoucher(Long voucherId, Integer count) {
+        if (count == null || count <= 0) {
+            return Result.fail("补货数量必须大于0");
         }
-    }
-
-/*    // 用于线程池处理的任务
-// 当初始化完毕后，就会去从对列中去拿信息
-    public class VoucherOrderHandler implements Runnable {
-
-        @Override
-        public void run() {
-            while (true) {
-                try {
-                    //1.从队列中获取订单信息
-                    VoucherOrder voucherOrder = orderTasks.take();
-                    //2.创建订单
-                    handleVoucherOrder(voucherOrder);
-                } catch (Exception e) {
-                    log.error("处理订单异常", e);
-                }
-            }
+        boolean success = seckillVoucherService.addStock(voucherId, count);
+        if (!success) {
+            return Result.fail("秒杀券不存在");
         }
-    }*/
+        seckillStockDispatcher.addStock(voucherId, count);
+        return Result.ok();
+    }
 
     /**
-     * 处理订单 ,创建订单
+     * 查询当前用户秒杀订单的状态，wait大于0时长轮询等待订单落库
      */
-    private void handleVoucherOrder(VoucherOrder voucherOrder) {
-//        ID 从voucherOrder 中取出来
-        Long userId = voucherOrder.getUserId();
-//        4.使用简易自定义分布式锁
-        //4.1创建锁对象(新增代码)
-//        SimpleRedisLock lock = new SimpleRedisLock("order:" + userId, stringRedisTemplate);
-        RLock lock = redissonClient.getLock("lock:order:" + userId);
-
-        //4.2获取锁对象
-        boolean b = lock.tryLock();
-//      4.3如果获取不到证明已经购买了
-        if (!b) {
-            log.error("不能重复下单");
-            return;
-        }
-
-        try {
-//            proxy.createVoucherOrder(voucherOrder);
-            createVoucherOrder(voucherOrder);
-        } catch (IllegalStateException e) {
-            throw new RuntimeException(e);
-        } finally {
-//            释放锁
-            lock.unlock();
-        }
-
-
-    }
-
-
-    //    调用脚本
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
-
-    static {
-        SECKILL_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua")); //指定脚本位置名字
-        SECKILL_SCRIPT.setResultType(Long.class);
+    @Override
+    public DeferredResult<Result> queryOrderStatus(Long orderId, long wait) {
+        return voucherOrderStatusTracker.watch(orderId, UserHolder.getUser().getId(), wait);
     }
 
-
+    //获取代理对象(事务)
+    private VoucherServiceImpl proxy;
 
     /**
      * 实现优惠券秒杀下单功能
-     * 使用redis消息队列
+     * 使用订单队列，由 seckill.order.queue 选择Redis stream或进程内队列
      * @param voucherId
      * @return
      */
 
     @Override
     public Result seckillVoucher(Long voucherId) {
+        //        0.最近确认过不存在的优惠券直接返回，不访问Redis和数据库
+        if (seckillStockPreheater.isAbsent(voucherId)) {
+            return Result.fail("优惠券不存在");
+        }
+        //        0.1本地判断秒杀时间窗口，未开始、已结束的请求不访问Redis
+        int window = seckillWindowGate.check(voucherId);
+        if (window != SeckillWindowGate.OPEN) {
+            return window == SeckillWindowGate.NOT_STARTED ? Result.fail("秒杀尚未开始") : Result.fail("秒杀已经结束");
+        }
+        //        0.2订单积压过多、队列已满时快速失败，保护落库线程
+        if (voucherOrderStreamMonitor.isOverloaded(voucherId) || !orderQueue.hasCapacity()) {
+            return Result.fail("抢购人数过多，请稍后再试");
+        }
         //        获取用户
         Long userId = UserHolder.getUser().getId();
-        Long orderId = redisIdWorker.nextId("order");
+        Long orderId = idGenerator.nextId("order");
 
 
-//        1.执行lua脚本
-        Long result = stringRedisTemplate.execute(SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(),
-                userId.toString(),
-                orderId.toString()
-        );
-        int r = result.intValue();
+//        1.执行lua脚本，分段库存时由调度器选择分段
+        int r = seckillStockDispatcher.trySeckill(voucherId, userId, orderId);
 //        2.判断结果是否为0
         if (r != 0) {
             //        2.1如果不是0，返回对应信息
-            return r == 1 ? Result.fail("库存不足") : Result.fail("不能重复下单");
+            switch (r) {
+                case 1:
+                    return Result.fail("库存不足");
+                case 2:
+                    return Result.fail("不能重复下单");
+                case SeckillWindowGate.NOT_STARTED:
+                    return Result.fail("秒杀尚未开始");
+                case SeckillStockPreheater.NOT_PREHEATED:
+                    return Result.fail("秒杀库存加载中，请稍后重试");
+                case SeckillStockPreheater.NOT_FOUND:
+                    return Result.fail("优惠券不存在");
+                default:
+                    return Result.fail("秒杀已经结束");
+            }
+        }
+
+//        2.2 记录订单状态，客户端通过 /voucher-order/{id}/status 查询是否已落库
+        voucherOrderStatusTracker.queued(orderId, userId, voucherId);
+//        2.3 写入本地预写日志并等待刷盘，未开启时直接返回
+//        刷盘超时时Redis中已经扣减库存、记录下单用户，订单照常处理，只是不保证能从本地日志恢复
+        try {
+            voucherOrderWal.append(orderId, userId, voucherId);
+        } catch (IllegalStateException e) {
+            log.error("订单" + orderId + "写入WAL失败，继续处理", e);
+        }
+//        2.4 订单不是由脚本写入Redis stream时，投递到进程内队列
+        if (!orderQueue.enqueuedByScript()) {
+            orderQueue.publish(orderId, userId, voucherId);
         }
 
 /*        //获取代理对象(事务)
         proxy = (VoucherServiceImpl) AopContext.currentProxy();*/
-//        2.3 返回订单id
+//        2.5 返回订单id
         return Result.ok(orderId);
 
     }
@@ -280,7 +192,7 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     public Result seckillVoucher(Long voucherId) {
         //        获取用户
         Long userId = UserHolder.getUser().getId();
-        Long orderId = redisIdWorker.nextId("order");
+        Long orderId = idGenerator.nextId("order");
 //        1.执行lua脚本
         Long result = stringRedisTemplate.execute(SECKILL_SCRIPT,
                 Collections.emptyList(),
@@ -367,36 +279,4 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
             lock.unlock();
         }
     }*/
-
-    /**
-     * 创建订单
-     *
-     * @param voucherOrder
-     * @return
-     */
-
-    @Transactional
-    public void createVoucherOrder(VoucherOrder voucherOrder) {
-        // 5.一人一单逻辑
-        // 5.1.用户id
-        Long userId = voucherOrder.getUserId();
-        int count = voucherOrderService.query().eq("user_id", userId).eq("voucher_id", voucherOrder.getVoucherId()).count();
-        // 5.2.判断是否存在
-        if (count > 0) {
-            // 用户已经购买过了
-            log.error("用户已经购买过一次！");
-        }
-
-//        4.减少库存
-        boolean sucess = seckillVoucherService.update()
-                .setSql("stock = stock - 1")
-                .gt("stock", 0)
-                .eq("voucher_id", voucherOrder.getVoucherId()).update();
-
-        if (!sucess) {
-            log.error("库存不足");
-        }
-//        5.插入数据
-        voucherOrderService.save(voucherOrder);
-    }
 }
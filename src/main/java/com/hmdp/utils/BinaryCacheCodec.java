@@ -0,0 +1,390 @@
+package com.hmdp.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 紧凑的二进制格式，按字段顺序写值，不写字段名
+ * <p>
+ * 格式：魔数0xB1 | 标志位 | [逻辑过期时间 8字节] | 类结构哈希 4字节 | 正文
+ * <p>
+ * 1.正文为 非空字段位图 + 各非空字段的值，整数用变长编码，字符串为 长度 + UTF-8；
+ * 2.正文超过 compressThreshold 字节时用Deflate压缩，标志位记录，压缩后的正文前写入原始长度；
+ * 3.类结构哈希由类名和各字段的名称、类型计算，类增删字段后哈希变化，旧数据解码返回null，按未命中重新加载；
+ * 4.只支持基本类型及其包装类、String、BigDecimal、LocalDateTime、LocalDate、Date类型的字段，
+ * 且类需要有无参构造方法，其他类型由 supports 返回false，继续使用json格式
+ */
+public class BinaryCacheCodec implements CacheCodec {
+
+    public static final byte MAGIC = (byte) 0xB1;
+
+    private static final int FLAG_EXPIRE = 1;
+    private static final int FLAG_COMPRESSED = 2;
+
+    private static final Schema UNSUPPORTED = new Schema(null, null, new Field[0], new int[0], 0);
+
+    private final int compressThreshold;
+    private final ConcurrentHashMap<Class<?>, Schema> schemas = new ConcurrentHashMap<>();
+
+    public BinaryCacheCodec(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    @Override
+    public boolean accepts(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == MAGIC;
+    }
+
+    @Override
+    public boolean supports(Class<?> type) {
+        return schemaOf(type) != UNSUPPORTED;
+    }
+
+    @Override
+    public byte[] encode(Object value, long expireAt) {
+        Schema schema = schemaOf(value.getClass());
+        if (schema == UNSUPPORTED) {
+            throw new IllegalArgumentException("不支持二进制编码的类型:" + value.getClass().getName());
+        }
+        // 1.正文
+        Output body = new Output(128);
+        schema.write(value, body);
+        byte[] payload = body.toByteArray();
+        int flags = expireAt > 0 ? FLAG_EXPIRE : 0;
+        if (compressThreshold > 0 && payload.length > compressThreshold) {
+            payload = deflate(payload);
+            flags |= FLAG_COMPRESSED;
+        }
+        // 2.头部
+        Output out = new Output(payload.length + 14);
+        out.writeByte(MAGIC);
+        out.writeByte(flags);
+        if (expireAt > 0) {
+            out.writeLong(expireAt);
+        }
+        out.writeInt(schema.hash);
+        out.writeRaw(payload);
+        return out.toByteArray();
+    }
+
+    @Override
+    public <T> CacheEntry<T> decode(byte[] bytes, Class<T> type, boolean logical) {
+        Input in = new Input(bytes, 1);
+        int flags = in.readByte();
+        long expireAt = (flags & FLAG_EXPIRE) != 0 ? in.readLong() : 0;
+        Schema schema = schemaOf(type);
+        if (schema == UNSUPPORTED || in.readInt() != schema.hash) {
+            return null;
+        }
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            in = new Input(inflate(bytes, in), 0);
+        }
+        return new CacheEntry<>(type.cast(schema.read(in)), expireAt);
+    }
+
+    private Schema schemaOf(Class<?> type) {
+        return schemas.computeIfAbsent(type, Schema::of);
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            Output out = new Output(raw.length / 2 + 16);
+            out.writeVarLong(raw.length);
+            byte[] buffer = new byte[1024];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.writeRaw(buffer, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] bytes, Input in) {
+        int length = (int) in.readVarLong();
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, in.position, bytes.length - in.position);
+            byte[] raw = new byte[length];
+            int n = 0;
+            while (n < length && !inflater.finished()) {
+                n += inflater.inflate(raw, n, length - n);
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("缓存数据解压失败", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static final int LONG = 1, INT = 2, SHORT = 3, BYTE = 4, BOOLEAN = 5, DOUBLE = 6, FLOAT = 7,
+            STRING = 8, BIG_DECIMAL = 9, LOCAL_DATE_TIME = 10, LOCAL_DATE = 11, DATE = 12;
+
+    private static final Map<Class<?>, Integer> TYPES = new HashMap<>();
+
+    static {
+        TYPES.put(Long.class, LONG);
+        TYPES.put(long.class, LONG);
+        TYPES.put(Integer.class, INT);
+        TYPES.put(int.class, INT);
+        TYPES.put(Short.class, SHORT);
+        TYPES.put(short.class, SHORT);
+        TYPES.put(Byte.class, BYTE);
+        TYPES.put(byte.class, BYTE);
+        TYPES.put(Boolean.class, BOOLEAN);
+        TYPES.put(boolean.class, BOOLEAN);
+        TYPES.put(Double.class, DOUBLE);
+        TYPES.put(double.class, DOUBLE);
+        TYPES.put(Float.class, FLOAT);
+        TYPES.put(float.class, FLOAT);
+        TYPES.put(String.class, STRING);
+        TYPES.put(BigDecimal.class, BIG_DECIMAL);
+        TYPES.put(LocalDateTime.class, LOCAL_DATE_TIME);
+        TYPES.put(LocalDate.class, LOCAL_DATE);
+        TYPES.put(Date.class, DATE);
+    }
+
+    /**
+     * 一个类的字段布局
+     */
+    private static class Schema {
+        private final Class<?> type;
+        private final Constructor<?> constructor;
+        private final Field[] fields;
+        private final int[] kinds;
+        private final int hash;
+
+        private Schema(Class<?> type, Constructor<?> constructor, Field[] fields, int[] kinds, int hash) {
+            this.type = type;
+            this.constructor = constructor;
+            this.fields = fields;
+            this.kinds = kinds;
+            this.hash = hash;
+        }
+
+        private static Schema of(Class<?> type) {
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()) {
+                        fields.add(field);
+                    }
+                }
+            }
+            fields.sort(Comparator.comparing(Field::getName));
+            int[] kinds = new int[fields.size()];
+            StringBuilder signature = new StringBuilder(type.getName());
+            for (int i = 0; i < fields.size(); i++) {
+                Field field = fields.get(i);
+                Integer kind = TYPES.get(field.getType());
+                if (kind == null) {
+                    return UNSUPPORTED;
+                }
+                kinds[i] = kind;
+                field.setAccessible(true);
+                signature.append(';').append(field.getName()).append(':').append(field.getType().getName());
+            }
+            try {
+                Constructor<?> constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+                CRC32 crc = new CRC32();
+                crc.update(signature.toString().getBytes(StandardCharsets.UTF_8));
+                return new Schema(type, constructor, fields.toArray(new Field[0]), kinds, (int) crc.getValue());
+            } catch (NoSuchMethodException | RuntimeException e) {
+                return UNSUPPORTED;
+            }
+        }
+
+        private void write(Object value, Output out) {
+            try {
+                Object[] values = new Object[fields.length];
+                byte[] present = new byte[(fields.length + 7) >>> 3];
+                for (int i = 0; i < fields.length; i++) {
+                    values[i] = fields[i].get(value);
+                    if (values[i] != null) {
+                        present[i >>> 3] |= 1 << (i & 7);
+                    }
+                }
+                out.writeRaw(present);
+                for (int i = 0; i < fields.length; i++) {
+                    if (values[i] != null) {
+                        writeValue(kinds[i], values[i], out);
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private Object read(Input in) {
+            try {
+                Object value = constructor.newInstance();
+                int presentLength = (fields.length + 7) >>> 3;
+                int presentOffset = in.position;
+                in.position += presentLength;
+                for (int i = 0; i < fields.length; i++) {
+                    if ((in.bytes[presentOffset + (i >>> 3)] & (1 << (i & 7))) != 0) {
+                        fields[i].set(value, readValue(kinds[i], in));
+                    }
+                }
+                return value;
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("无法创建" + type.getName(), e);
+            }
+        }
+
+        private static void writeValue(int kind, Object value, Output out) {
+            switch (kind) {
+                case LONG: out.writeVarLong(zigZag((Long) value)); break;
+                case INT: out.writeVarLong(zigZag((Integer) value)); break;
+                case SHORT: out.writeVarLong(zigZag((Short) value)); break;
+                case BYTE: out.writeByte((Byte) value); break;
+                case BOOLEAN: out.writeByte((Boolean) value ? 1 : 0); break;
+                case DOUBLE: out.writeLong(Double.doubleToRawLongBits((Double) value)); break;
+                case FLOAT: out.writeInt(Float.floatToRawIntBits((Float) value)); break;
+                case STRING: out.writeString((String) value); break;
+                case BIG_DECIMAL: out.writeString(((BigDecimal) value).toString()); break;
+                case LOCAL_DATE_TIME:
+                    LocalDateTime time = (LocalDateTime) value;
+                    out.writeVarLong(zigZag(time.toEpochSecond(ZoneOffset.UTC)));
+                    out.writeVarLong(time.getNano());
+                    break;
+                case LOCAL_DATE: out.writeVarLong(zigZag(((LocalDate) value).toEpochDay())); break;
+                case DATE: out.writeVarLong(zigZag(((Date) value).getTime())); break;
+                default: throw new IllegalStateException("未知的字段类型:" + kind);
+            }
+        }
+
+        private static Object readValue(int kind, Input in) {
+            switch (kind) {
+                case LONG: return unZigZag(in.readVarLong());
+                case INT: return (int) unZigZag(in.readVarLong());
+                case SHORT: return (short) unZigZag(in.readVarLong());
+                case BYTE: return (byte) in.readByte();
+                case BOOLEAN: return in.readByte() != 0;
+                case DOUBLE: return Double.longBitsToDouble(in.readLong());
+                case FLOAT: return Float.intBitsToFloat(in.readInt());
+                case STRING: return in.readString();
+                case BIG_DECIMAL: return new BigDecimal(in.readString());
+                case LOCAL_DATE_TIME:
+                    long seconds = unZigZag(in.readVarLong());
+                    return LocalDateTime.ofEpochSecond(seconds, (int) in.readVarLong(), ZoneOffset.UTC);
+                case LOCAL_DATE: return LocalDate.ofEpochDay(unZigZag(in.readVarLong()));
+                case DATE: return new Date(unZigZag(in.readVarLong()));
+                default: throw new IllegalStateException("未知的字段类型:" + kind);
+            }
+        }
+
+        private static long zigZag(long v) {
+            return (v << 1) ^ (v >> 63);
+        }
+
+        private static long unZigZag(long v) {
+            return (v >>> 1) ^ -(v & 1);
+        }
+    }
+
+    private static class Output extends ByteArrayOutputStream {
+
+        private Output(int size) {
+            super(size);
+        }
+
+        private void writeByte(int b) {
+            write(b);
+        }
+
+        private void writeRaw(byte[] b) {
+            write(b, 0, b.length);
+        }
+
+        private void writeRaw(byte[] b, int length) {
+            write(b, 0, length);
+        }
+
+        private void writeInt(int v) {
+            write(v >>> 24);
+            write(v >>> 16);
+            write(v >>> 8);
+            write(v);
+        }
+
+        private void writeLong(long v) {
+            writeInt((int) (v >>> 32));
+            writeInt((int) v);
+        }
+
+        private void writeVarLong(long v) {
+            while ((v & ~0x7FL) != 0) {
+                write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            write((int) v);
+        }
+
+        private void writeString(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(b.length);
+            writeRaw(b);
+        }
+    }
+
+    private static class Input {
+        private final byte[] bytes;
+        private int position;
+
+        private Input(byte[] bytes, int position) {
+            this.bytes = bytes;
+            this.position = position;
+        }
+
+        private int readByte() {
+            return bytes[position++] & 0xFF;
+        }
+
+        private int readInt() {
+            return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        }
+
+        private long readLong() {
+            return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+        }
+
+        private long readVarLong() {
+            long v = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = readByte();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return v;
+                }
+            }
+        }
+
+        private String readString() {
+            int length = (int) readVarLong();
+            String s = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return s;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.hmdp.utils;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * 针对数字id的布隆过滤器
+ * <p>
+ * 位数 m = -n·ln(p) / (ln2)²，哈希函数个数 k = m/n·ln2，n为预计元素个数，p为误判率；
+ * 第i个位置为 h1 + i·h2（双重哈希），h1、h2取自id经过混淆后的64位哈希值的高低32位
+ */
+public abstract class BloomFilter {
+
+    // Redis字符串最大512MB
+    private static final long MAX_BITS = 1L << 32;
+
+    protected final long bits;
+    protected final int hashes;
+
+    protected BloomFilter(long expectedInsertions, double fpp) {
+        long n = Math.max(1, expectedInsertions);
+        this.bits = Math.min(MAX_BITS, Math.max(64, (long) (-n * Math.log(fpp) / (Math.log(2) * Math.log(2)))));
+        this.hashes = Math.max(1, (int) Math.round((double) bits / n * Math.log(2)));
+    }
+
+    /**
+     * 返回false时id一定不存在
+     */
+    public boolean mightContain(long id) {
+        return allSet(offsets(id));
+    }
+
+    public void put(long id) {
+        putAll(Collections.singletonList(id));
+    }
+
+    public abstract void putAll(Collection<Long> ids);
+
+    /**
+     * 这些位是否都为1
+     */
+    protected abstract boolean allSet(long[] offsets);
+
+    protected long[] offsets(long id) {
+        long hash = mix(id);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long[] offsets = new long[hashes];
+        long combined = h1;
+        for (int i = 0; i < hashes; i++) {
+            offsets[i] = (combined & Long.MAX_VALUE) % bits;
+            combined += h2;
+        }
+        return offsets;
+    }
+
+    /**
+     * MurmurHash3 的 fmix64，连续的id也能均匀分布
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,366 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.config.CacheProperties;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.UserMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 商铺、笔记、用户id的布隆过滤器，拦截不存在的id，避免随机id穿透到Redis和数据库
+ * <p>
+ * 1.启动时按id顺序分批读取数据库构建，之后每 rebuildInterval 重建一次，清除已删除的id；
+ * 2.新增记录后调用 add：redis方式直接写入 bloom:{name}；local方式先写入本地，再通过频道 bloom:add 广播到其他节点；
+ * 3.redis方式重建时写入 bloom:{name}:building，完成后RENAME覆盖，同一时间只有一个节点重建；
+ * 重建期间其他节点新增的id写在旧key上，RENAME后会丢失，因此之后再补读一次大于最后一个id的记录；
+ * 4.过滤器还没有构建完成、或者Redis访问异常时一律视为存在；
+ * 5.redis方式构建完成后写入 bloom:{name}:ready（值为id数），判断为不存在时确认一次该标记和位图仍在，
+ * Redis被清空或key被淘汰后位图全为0，此时改为放行并重新构建，不会把所有id都判为不存在
+ */
+@Slf4j
+@Component
+public class BloomFilterManager {
+
+    public static final String SHOP = "shop";
+    public static final String BLOG = "blog";
+    public static final String USER = "user";
+
+    private static final String TYPE_LOCAL = "local";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Resource
+    private CacheProperties cacheProperties;
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private BlogMapper blogMapper;
+    @Resource
+    private UserMapper userMapper;
+
+    private static final ExecutorService BLOOM_EXECUTOR =
+            Executors.newSingleThreadExecutor(new NamedThreadFactory("bloom-filter-", true));
+
+    private final Map<String, Target> targets = new LinkedHashMap<>();
+    // 缓存key前缀 -> 过滤器
+    private final Map<String, Target> prefixes = new HashMap<>();
+
+    private static class Target {
+        private final String name;
+        private final String key;
+        private final BaseMapper<?> mapper;
+        // 正在使用的过滤器，local方式在构建完成前为null
+        private volatile BloomFilter filter;
+        // 正在重建的过滤器，新增的id同时写入
+        private volatile BloomFilter building;
+        private volatile boolean ready;
+        // 构建完成的标记，值为id数
+        private final String readyKey;
+        // 发现key丢失后是否已经提交了重新构建
+        private final AtomicBoolean recovering = new AtomicBoolean();
+
+        private Target(String name, BaseMapper<?> mapper) {
+            this.name = name;
+            this.key = BLOOM_FILTER_KEY + "{" + name + "}";
+            this.readyKey = key + ":ready";
+            this.mapper = mapper;
+        }
+    }
+
+    private boolean enabled() {
+        return cacheProperties.getBloom().isEnabled();
+    }
+
+    private boolean local() {
+        return TYPE_LOCAL.equals(cacheProperties.getBloom().getType());
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled()) {
+            return;
+        }
+        register(SHOP, CACHE_SHOP_KEY, shopMapper);
+        register(BLOG, null, blogMapper);
+        register(USER, CACHE_USER_KEY, userMapper);
+        if (local()) {
+            redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+                String body = new String(message.getBody(), StandardCharsets.UTF_8);
+                int i = body.lastIndexOf(':');
+                Target target = i < 0 ? null : targets.get(body.substring(0, i));
+                if (target != null) {
+                    putLocal(target, Long.parseLong(body.substring(i + 1)));
+                }
+            }, new ChannelTopic(BLOOM_FILTER_CHANNEL));
+        }
+        BLOOM_EXECUTOR.submit(() -> targets.values().forEach(target -> build(target, false)));
+    }
+
+    private void register(String name, String keyPrefix, BaseMapper<?> mapper) {
+        Target target = new Target(name, mapper);
+        if (!local()) {
+            CacheProperties.Bloom config = cacheProperties.getBloom();
+            target.filter = new RedisBloomFilter(stringRedisTemplate, target.key,
+                    config.getExpectedInsertions(), config.getFpp());
+        }
+        targets.put(name, target);
+        if (keyPrefix != null) {
+            prefixes.put(keyPrefix, target);
+        }
+    }
+
+    /**
+     * 定时重建，清除已删除的id
+     */
+    @Scheduled(fixedDelayString = "${cache.bloom.rebuild-interval:3600000}",
+            initialDelayString = "${cache.bloom.rebuild-interval:3600000}")
+    public void rebuild() {
+        if (!enabled()) {
+            return;
+        }
+        targets.values().forEach(target -> build(target, true));
+    }
+
+    /**
+     * CacheClient 查询前调用，没有为该前缀配置过滤器、或id不是数字时返回true
+     */
+    public boolean mightContain(String keyPrefix, Object id) {
+        Target target = prefixes.get(keyPrefix);
+        if (target == null || !(id instanceof Number)) {
+            return true;
+        }
+        return mightContain(target, ((Number) id).longValue());
+    }
+
+    /**
+     * 按过滤器名称判断，返回false时id一定不存在
+     */
+    public boolean mightContainId(String name, Long id) {
+        Target target = targets.get(name);
+        if (target == null || id == null) {
+            return true;
+        }
+        return mightContain(target, id);
+    }
+
+    private boolean mightContain(Target target, long id) {
+        BloomFilter filter = target.filter;
+        if (!target.ready || filter == null) {
+            return true;
+        }
+        try {
+            if (filter.mightContain(id)) {
+                return true;
+            }
+            if (!local() && !intact(target)) {
+                log.warn("布隆过滤器{}的key已丢失，重新构建前一律放行", target.name);
+                recover(target);
+                return true;
+            }
+            return false;
+        } catch (Exception e) {
+            log.warn("查询布隆过滤器{}异常:{}", target.name, e.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * redis方式的过滤器仍然完整：有构建完成标记，且id数不为0时位图存在
+     */
+    private boolean intact(Target target) {
+        String count = stringRedisTemplate.opsForValue().get(target.readyKey);
+        if (count == null) {
+            return false;
+        }
+        return "0".equals(count) || Boolean.TRUE.equals(stringRedisTemplate.hasKey(target.key));
+    }
+
+    /**
+     * 标记为未就绪并异步重新构建，同一个过滤器同时只提交一次
+     */
+    private void recover(Target target) {
+        if (!target.recovering.compareAndSet(false, true)) {
+            return;
+        }
+        target.ready = false;
+        BLOOM_EXECUTOR.submit(() -> {
+            try {
+                build(target, false);
+            } finally {
+                target.recovering.set(false);
+            }
+        });
+    }
+
+    /**
+     * 新增记录后调用
+     */
+    public void add(String name, Long id) {
+        Target target = targets.get(name);
+        if (target == null || id == null) {
+            return;
+        }
+        try {
+            if (local()) {
+                putLocal(target, id);
+                stringRedisTemplate.convertAndSend(BLOOM_FILTER_CHANNEL, name + ":" + id);
+                return;
+            }
+            target.filter.put(id);
+            BloomFilter building = target.building;
+            if (building != null) {
+                building.put(id);
+            }
+        } catch (Exception e) {
+            // 漏掉的id在下次重建时补上，在此之前会被当作不存在
+            log.error("写入布隆过滤器{}异常，id:{}", name, id, e);
+        }
+    }
+
+    private void putLocal(Target target, long id) {
+        BloomFilter filter = target.filter;
+        if (filter != null) {
+            filter.put(id);
+        }
+        BloomFilter building = target.building;
+        if (building != null) {
+            building.put(id);
+        }
+    }
+
+    /**
+     * 构建过滤器，启动时redis方式的key已经存在则直接使用
+     */
+    private void build(Target target, boolean rebuild) {
+        synchronized (target) {
+            try {
+                if (local()) {
+                    buildLocal(target);
+                } else {
+                    buildRedis(target, rebuild);
+                }
+            } catch (Exception e) {
+                log.error("构建布隆过滤器{}异常", target.name, e);
+            }
+        }
+    }
+
+    private void buildLocal(Target target) {
+        CacheProperties.Bloom config = cacheProperties.getBloom();
+        LocalBloomFilter filter = new LocalBloomFilter(config.getExpectedInsertions(), config.getFpp());
+        target.building = filter;
+        long[] loaded = load(target, filter, 0);
+        target.filter = filter;
+        target.building = null;
+        target.ready = true;
+        // 补上订阅消息丢失或构建期间新增的id
+        load(target, filter, loaded[0]);
+        log.info("已构建本地布隆过滤器{}，id数:{}", target.name, loaded[1]);
+    }
+
+    private void buildRedis(Target target, boolean rebuild) throws InterruptedException {
+        if (!rebuild && intact(target)) {
+            target.ready = true;
+            return;
+        }
+        String lockKey = target.key + ":lock";
+        if (!Boolean.TRUE.equals(stringRedisTemplate.opsForValue().setIfAbsent(lockKey, "1", 10, TimeUnit.MINUTES))) {
+            // 其他节点正在构建，启动时等待构建完成
+            while (!rebuild && !target.ready) {
+                TimeUnit.SECONDS.sleep(1);
+                target.ready = intact(target) || !Boolean.TRUE.equals(stringRedisTemplate.hasKey(lockKey));
+            }
+            return;
+        }
+        try {
+            CacheProperties.Bloom config = cacheProperties.getBloom();
+            String buildingKey = target.key + ":building";
+            stringRedisTemplate.delete(buildingKey);
+            RedisBloomFilter filter = new RedisBloomFilter(stringRedisTemplate, buildingKey,
+                    config.getExpectedInsertions(), config.getFpp());
+            target.building = filter;
+            long[] loaded = load(target, filter, 0);
+            if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(buildingKey))) {
+                stringRedisTemplate.rename(buildingKey, target.key);
+            } else {
+                // 表中没有记录
+                stringRedisTemplate.delete(target.key);
+            }
+            stringRedisTemplate.opsForValue().set(target.readyKey, String.valueOf(loaded[1]));
+            target.building = null;
+            target.ready = true;
+            // 补上构建期间其他节点新增的id
+            long[] caught = load(target, target.filter, loaded[0]);
+            if (caught[1] > 0) {
+                stringRedisTemplate.opsForValue().set(target.readyKey, String.valueOf(loaded[1] + caught[1]));
+            }
+            log.info("已构建布隆过滤器{}，id数:{}", target.name, loaded[1] + caught[1]);
+        } finally {
+            target.building = null;
+            stringRedisTemplate.delete(lockKey);
+        }
+    }
+
+    /**
+     * 按id顺序分批读取大于fromId的记录写入过滤器
+     * @return 最后一个id、读取的id数
+     */
+    private long[] load(Target target, BloomFilter filter, long fromId) {
+        CacheProperties.Bloom config = cacheProperties.getBloom();
+        int batchSize = config.getLoadBatchSize();
+        long lastId = fromId;
+        long count = 0;
+        while (true) {
+            List<Long> ids = loadIds(target.mapper, lastId, batchSize);
+            if (ids.isEmpty()) {
+                break;
+            }
+            filter.putAll(ids);
+            lastId = ids.get(ids.size() - 1);
+            count += ids.size();
+            if (ids.size() < batchSize) {
+                break;
+            }
+        }
+        if (count > config.getExpectedInsertions()) {
+            log.warn("布隆过滤器{}的id数{}超过预计数量{}，误判率会上升", target.name, count, config.getExpectedInsertions());
+        }
+        return new long[]{lastId, count};
+    }
+
+    private <T> List<Long> loadIds(BaseMapper<T> mapper, long lastId, int limit) {
+        QueryWrapper<T> wrapper = new QueryWrapper<T>()
+                .select("id")
+                .gt("id", lastId)
+                .orderByAsc("id")
+                .last("limit " + limit);
+        return mapper.selectObjs(wrapper).stream()
+                .map(id -> ((Number) id).longValue())
+                .collect(Collectors.toList());
+    }
+}
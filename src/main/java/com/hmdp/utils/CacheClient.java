@@ -1,18 +1,22 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.hmdp.config.CacheProperties;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
 import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
@@ -22,39 +26,69 @@ import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
 public class CacheClient {
 
     private final StringRedisTemplate stringRedisTemplate;
+    private final LocalCacheManager localCacheManager;
+    private final BloomFilterManager bloomFilterManager;
+    private final CacheCodec cacheCodec;
+    private final SingleFlight singleFlight;
+    private final CacheProperties cacheProperties;
 
     private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    public CacheClient(StringRedisTemplate stringRedisTemplate, LocalCacheManager localCacheManager,
+                       BloomFilterManager bloomFilterManager, CacheCodec cacheCodec,
+                       SingleFlight singleFlight, CacheProperties cacheProperties) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.localCacheManager = localCacheManager;
+        this.bloomFilterManager = bloomFilterManager;
+        this.cacheCodec = cacheCodec;
+        this.singleFlight = singleFlight;
+        this.cacheProperties = cacheProperties;
     }
 
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        setBytes(key, cacheCodec.encode(value, 0), time, unit);
     }
 
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
-        // 设置逻辑过期
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        // 写入Redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        // 设置逻辑过期，与值编码在一起写入Redis
+        long expireAt = System.currentTimeMillis() + unit.toMillis(time);
+        setBytes(key, cacheCodec.encode(value, expireAt), null, null);
+    }
+
+    /**
+     * 删除缓存，并通知各节点删除一级缓存
+     */
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        localCacheManager.invalidate(key);
     }
 
     public <R,ID> R queryWithPassThrough(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
         String key = keyPrefix + id;
+        // 0.查询一级缓存
+        Object local = localCacheManager.get(keyPrefix, key);
+        if (local != null) {
+            return local == LocalCacheManager.NULL_VALUE ? null : type.cast(local);
+        }
+        // 0.1.布隆过滤器判断id一定不存在时直接返回
+        if (!bloomFilterManager.mightContain(keyPrefix, id)) {
+            return null;
+        }
+        long stamp = localCacheManager.version();
         // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = getBytes(key);
         // 2.判断是否存在
-        if (StrUtil.isNotBlank(json)) {
-            // 3.存在，直接返回
-            return JSONUtil.toBean(json, type);
-        }
-        // 判断命中的是否是空值
-        if (json != null) {
-            // 返回一个错误信息
+        if (bytes != null && bytes.length > 0) {
+            // 3.存在，解码后写入一级缓存并返回；格式与类型不匹配时当作不存在
+            CacheEntry<R> entry = cacheCodec.decode(bytes, type, false);
+            if (entry != null) {
+                localCacheManager.put(keyPrefix, key, entry.getValue(), stamp, unit.toMillis(time));
+                return entry.getValue();
+            }
+        } else if (bytes != null) {
+            // 命中的是空值，返回一个错误信息
+            localCacheManager.put(keyPrefix, key, null, stamp, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
             return null;
         }
 
@@ -64,31 +98,127 @@ public class CacheClient {
         if (r == null) {
             // 将空值写入redis
             stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            localCacheManager.put(keyPrefix, key, null, stamp, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
             // 返回错误信息
             return null;
         }
         // 6.存在，写入redis
         this.set(key, r, time, unit);
+        localCacheManager.put(keyPrefix, key, r, stamp, unit.toMillis(time));
         return r;
     }
 
+    /**
+     * 批量查询，缓存空值解决缓存穿透
+     * <p>
+     * 一级缓存未命中的id一次MGET查询Redis，Redis也未命中、且布隆过滤器不能排除的id调用一次 dbBatchFallback
+     * 批量查询数据库，再通过管道写回Redis，数据库中不存在的id写入空值
+     *
+     * @param dbBatchFallback 按id批量查询，返回 id -> 对象
+     * @return 与ids顺序一致，不存在的id不在结果中
+     */
+    public <R, ID> List<R> queryBatchWithPassThrough(
+            String keyPrefix, List<ID> ids, Class<R> type, Function<List<ID>, Map<ID, R>> dbBatchFallback,
+            Long time, TimeUnit unit) {
+        Map<ID, R> found = new HashMap<>(ids.size());
+        List<ID> remote = new ArrayList<>();
+        long stamp = localCacheManager.version();
+        // 1.查询一级缓存
+        for (ID id : new LinkedHashSet<>(ids)) {
+            Object local = localCacheManager.get(keyPrefix, keyPrefix + id);
+            if (local == null) {
+                remote.add(id);
+            } else if (local != LocalCacheManager.NULL_VALUE) {
+                found.put(id, type.cast(local));
+            }
+        }
+        // 2.一次MGET查询Redis
+        List<ID> misses = new ArrayList<>();
+        if (!remote.isEmpty()) {
+            byte[][] rawKeys = new byte[remote.size()][];
+            for (int i = 0; i < remote.size(); i++) {
+                rawKeys[i] = (keyPrefix + remote.get(i)).getBytes(StandardCharsets.UTF_8);
+            }
+            List<byte[]> values = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(rawKeys));
+            for (int i = 0; i < remote.size(); i++) {
+                ID id = remote.get(i);
+                byte[] bytes = values == null ? null : values.get(i);
+                if (bytes == null) {
+                    // 布隆过滤器判断一定不存在的id不查数据库
+                    if (bloomFilterManager.mightContain(keyPrefix, id)) {
+                        misses.add(id);
+                    }
+                    continue;
+                }
+                if (bytes.length == 0) {
+                    // 命中空值
+                    localCacheManager.put(keyPrefix, keyPrefix + id, null, stamp, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
+                    continue;
+                }
+                // 格式与类型不匹配时当作未命中
+                CacheEntry<R> entry = cacheCodec.decode(bytes, type, false);
+                if (entry == null) {
+                    misses.add(id);
+                    continue;
+                }
+                found.put(id, entry.getValue());
+                localCacheManager.put(keyPrefix, keyPrefix + id, entry.getValue(), stamp, unit.toMillis(time));
+            }
+        }
+        // 3.未命中的id一次查询数据库，管道写回Redis
+        if (!misses.isEmpty()) {
+            Map<ID, R> loaded = dbBatchFallback.apply(misses);
+            Expiration expiration = Expiration.from(time, unit);
+            Expiration nullExpiration = Expiration.from(CACHE_NULL_TTL, TimeUnit.MINUTES);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (ID id : misses) {
+                    R r = loaded.get(id);
+                    byte[] rawKey = (keyPrefix + id).getBytes(StandardCharsets.UTF_8);
+                    if (r == null) {
+                        connection.set(rawKey, new byte[0], nullExpiration, RedisStringCommands.SetOption.upsert());
+                    } else {
+                        connection.set(rawKey, cacheCodec.encode(r, 0), expiration, RedisStringCommands.SetOption.upsert());
+                    }
+                }
+                return null;
+            });
+            for (ID id : misses) {
+                R r = loaded.get(id);
+                if (r != null) {
+                    found.put(id, r);
+                }
+                localCacheManager.put(keyPrefix, keyPrefix + id, r, stamp,
+                        r == null ? TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL) : unit.toMillis(time));
+            }
+        }
+        // 4.按ids的顺序返回
+        return ids.stream().map(found::get).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
     public <R, ID> R queryWithLogicalExpire(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
+        // 0.查询一级缓存
+        Object local = localCacheManager.get(keyPrefix, key);
+        if (local != null && local != LocalCacheManager.NULL_VALUE) {
+            return type.cast(local);
+        }
+        long stamp = localCacheManager.version();
         // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = getBytes(key);
         // 2.判断是否存在
-        if (StrUtil.isBlank(json)) {
-            // 3.存在，直接返回
+        if (bytes == null || bytes.length == 0) {
+            // 3.不存在，直接返回
             return null;
         }
-        // 4.命中，需要先把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-        LocalDateTime expireTime = redisData.getExpireTime();
+        // 4.命中，一次解码得到对象和逻辑过期时间，格式与类型不匹配时按已过期重建
+        CacheEntry<R> entry = cacheCodec.decode(bytes, type, true);
+        R r = entry == null ? null : entry.getValue();
         // 5.判断是否过期
-        if(expireTime.isAfter(LocalDateTime.now())) {
-            // 5.1.未过期，直接返回店铺信息
+        if (entry != null && !entry.expired()) {
+            // 5.1.未过期，一级缓存不超过逻辑过期时间
+            long remaining = entry.getExpireAt() > 0 ? entry.getExpireAt() - System.currentTimeMillis() : 0;
+            localCacheManager.put(keyPrefix, key, r, stamp, remaining);
             return r;
         }
         // 5.2.已过期，需要缓存重建
@@ -120,52 +250,125 @@ public class CacheClient {
     public <R, ID> R queryWithMutex(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
-        // 1.从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        // 2.判断是否存在
-        if (StrUtil.isNotBlank(shopJson)) {
-            // 3.存在，直接返回
-            return JSONUtil.toBean(shopJson, type);
+        // 0.查询一级缓存
+        Object local = localCacheManager.get(keyPrefix, key);
+        if (local != null) {
+            return local == LocalCacheManager.NULL_VALUE ? null : type.cast(local);
         }
-        // 判断命中的是否是空值
-        if (shopJson != null) {
-            // 返回一个错误信息
+        // 0.1.布隆过滤器判断id一定不存在时直接返回
+        if (!bloomFilterManager.mightContain(keyPrefix, id)) {
             return null;
         }
+        long stamp = localCacheManager.version();
+        // 1.从redis查询商铺缓存
+        CacheEntry<R> cached = readCache(keyPrefix, key, type, time, unit, stamp);
+        // 2.判断是否存在
+        if (cached != null) {
+            // 3.存在（包括空值），直接返回
+            return cached.getValue();
+        }
+        // 4.实现缓存重建，同一节点内同一个key只有一个线程重建，其他线程共用它的结果
+        return singleFlight.load(key, () -> rebuildWithMutex(keyPrefix, id, type, dbFallback, time, unit, stamp));
+    }
 
-        // 4.实现缓存重建
-        // 4.1.获取互斥锁
+    /**
+     * 获取互斥锁后查询数据库重建缓存；锁被其他节点持有时等待其重建完成的通知，再从Redis读取
+     */
+    private <R, ID> R rebuildWithMutex(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit, long stamp) {
+        String key = keyPrefix + id;
         String lockKey = LOCK_SHOP_KEY + id;
-        R r = null;
-        try {
-            boolean isLock = tryLock(lockKey);
-            // 4.2.判断是否获取成功
-            if (!isLock) {
-                // 4.3.获取锁失败，休眠并重试
-                Thread.sleep(50);
-                return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
+        CacheProperties.Mutex config = cacheProperties.getMutex();
+        for (int attempt = 0; attempt < config.getMaxAttempts(); attempt++) {
+            // 4.1.获取互斥锁
+            if (tryLock(lockKey)) {
+                try {
+                    // 4.2.获取成功，再次检查缓存，可能是其他节点刚重建完释放的锁
+                    CacheEntry<R> cached = readCache(keyPrefix, key, type, time, unit, stamp);
+                    if (cached != null) {
+                        return cached.getValue();
+                    }
+                    // 4.3.根据id查询数据库并写入缓存
+                    return loadFromDb(keyPrefix, id, dbFallback, time, unit, stamp);
+                } finally {
+                    // 4.4.释放锁，唤醒其他节点上等待的线程
+                    unlock(lockKey);
+                    singleFlight.notifyLoaded(key);
+                }
             }
-            // 4.4.获取锁成功，根据id查询数据库
-            r = dbFallback.apply(id);
-            // 5.不存在，返回错误
-            if (r == null) {
-                // 将空值写入redis
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                // 返回错误信息
-                return null;
+            // 4.5.获取失败，先登记等待再检查缓存，避免错过两者之间发出的通知
+            CompletableFuture<Void> signal = singleFlight.subscribe(key);
+            CacheEntry<R> cached = readCache(keyPrefix, key, type, time, unit, stamp);
+            if (cached != null) {
+                return cached.getValue();
+            }
+            // 4.6.等待持有锁的节点重建完成，收到通知后读取缓存；超时或缓存仍不存在时重新尝试加锁
+            if (singleFlight.await(key, signal, config.getWaitTimeout())) {
+                cached = readCache(keyPrefix, key, type, time, unit, stamp);
+                if (cached != null) {
+                    return cached.getValue();
+                }
             }
-            // 6.存在，写入redis
-            this.set(key, r, time, unit);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }finally {
-            // 7.释放锁
-            unlock(lockKey);
-        }
-        // 8.返回
+        }
+        // 5.等待次数用完，直接查询数据库
+        log.warn("等待缓存{}重建超时，直接查询数据库", key);
+        return loadFromDb(keyPrefix, id, dbFallback, time, unit, stamp);
+    }
+
+    /**
+     * 从Redis读取并写入一级缓存
+     * @return 不存在或无法解码时返回null，空值返回value为null的CacheEntry
+     */
+    private <R> CacheEntry<R> readCache(String keyPrefix, String key, Class<R> type, Long time, TimeUnit unit, long stamp) {
+        byte[] bytes = getBytes(key);
+        if (bytes == null) {
+            return null;
+        }
+        if (bytes.length == 0) {
+            localCacheManager.put(keyPrefix, key, null, stamp, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
+            return new CacheEntry<>(null, 0);
+        }
+        // 格式与类型不匹配时当作不存在
+        CacheEntry<R> entry = cacheCodec.decode(bytes, type, false);
+        if (entry != null) {
+            localCacheManager.put(keyPrefix, key, entry.getValue(), stamp, unit.toMillis(time));
+        }
+        return entry;
+    }
+
+    /**
+     * 查询数据库并写入缓存，不存在时写入空值
+     */
+    private <R, ID> R loadFromDb(
+            String keyPrefix, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit, long stamp) {
+        String key = keyPrefix + id;
+        R r = dbFallback.apply(id);
+        if (r == null) {
+            // 将空值写入redis
+            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            localCacheManager.put(keyPrefix, key, null, stamp, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
+            return null;
+        }
+        this.set(key, r, time, unit);
+        localCacheManager.put(keyPrefix, key, r, stamp, unit.toMillis(time));
         return r;
     }
 
+    private byte[] getBytes(String key) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey));
+    }
+
+    /**
+     * 写入编码后的值，time为null时不过期
+     */
+    private void setBytes(String key, byte[] value, Long time, TimeUnit unit) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        Expiration expiration = time == null ? Expiration.persistent() : Expiration.from(time, unit);
+        stringRedisTemplate.execute((RedisCallback<Boolean>) connection ->
+                connection.set(rawKey, value, expiration, RedisStringCommands.SetOption.upsert()));
+    }
+
     private boolean tryLock(String key) {
         Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
         return BooleanUtil.isTrue(flag);
@@ -1,17 +1,17 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import com.hmdp.entity.Shop;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.stereotype.Component;
 import org.yaml.snakeyaml.events.Event;
 
-import java.time.LocalDateTime;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -19,7 +19,6 @@ import java.util.function.Function;
 
 import static com.hmdp.utils.RedisConstants.*;
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
-import static java.lang.Thread.sleep;
 
 /**
  * @version V1.0
@@ -42,9 +41,18 @@ import static java.lang.Thread.sleep;
 public class CacheClient1 {
 
     private final StringRedisTemplate stringRedisTemplate;
+    private final LocalCacheManager localCacheManager;
+    private final BloomFilterManager bloomFilterManager;
+    private final CacheCodec cacheCodec;
+    private final CacheClient cacheClient;
 
-    public CacheClient1(StringRedisTemplate stringRedisTemplate) {
+    public CacheClient1(StringRedisTemplate stringRedisTemplate, LocalCacheManager localCacheManager,
+                        BloomFilterManager bloomFilterManager, CacheCodec cacheCodec, CacheClient cacheClient) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.localCacheManager = localCacheManager;
+        this.bloomFilterManager = bloomFilterManager;
+        this.cacheCodec = cacheCodec;
+        this.cacheClient = cacheClient;
     }
 
     /**
@@ -56,7 +64,17 @@ public class CacheClient1 {
      * @param unit
      */
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        setBytes(key, cacheCodec.encode(value, 0), time, unit);
+    }
+
+    /**
+     * 删除缓存，并通知各节点删除一级缓存
+     *
+     * @param key
+     */
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        localCacheManager.invalidate(key);
     }
 
     //开启线程池
@@ -78,23 +96,28 @@ public class CacheClient1 {
             String keyPrefix,ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit
     ) {
         String key = keyPrefix + id;
+//        0.查一级缓存
+        Object local = localCacheManager.get(keyPrefix, key);
+        if (local != null && local != LocalCacheManager.NULL_VALUE) {
+            return type.cast(local);
+        }
+        long stamp = localCacheManager.version();
 //        1.从redis查商户缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
-//        2.如果不存在直接返回json
-        if (StrUtil.isBlank(json)) {
-            // 3.存在，直接返回
+        byte[] bytes = getBytes(key);
+//        2.如果不存在直接返回
+        if (bytes == null || bytes.length == 0) {
             return null;
         }
         log.debug("查询商户缓存:{}", key);
-//        命中，需要先把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-        LocalDateTime expireTime = redisData.getExpireTime();
+//        命中，一次解码得到对象和逻辑过期时间，格式与类型不匹配时按已过期重建
+        CacheEntry<R> entry = cacheCodec.decode(bytes, type, true);
+        R r = entry == null ? null : entry.getValue();
 
 //        3.判断缓存是否过期
-        boolean after = expireTime.isAfter(LocalDateTime.now());
-        if (after) {
-//        3.2 没过期返回信息 直接返回店铺信息
+        if (entry != null && !entry.expired()) {
+//        3.2 没过期返回信息 写入一级缓存，不超过逻辑过期时间
+            long remaining = entry.getExpireAt() > 0 ? entry.getExpireAt() - System.currentTimeMillis() : 0;
+            localCacheManager.put(keyPrefix, key, r, stamp, remaining);
             return r;
         }
 
@@ -133,30 +156,40 @@ public class CacheClient1 {
      */
 
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
-        RedisData redisData = new RedisData();
-        // 设置逻辑过期
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
+        // 设置逻辑过期，与值编码在一起
+        long expireAt = System.currentTimeMillis() + unit.toMillis(time);
 //            写入redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        setBytes(key, cacheCodec.encode(value, expireAt), null, null);
     }
 
     //    根据指定的key查询缓存，并反序列化为指定类型，利用缓存空值的方式解决缓存穿透问题
     public <R, ID> R queryWithPassThrough(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
+        //        0.查一级缓存
+        Object local = localCacheManager.get(keyPrefix, key);
+        if (local != null) {
+            return local == LocalCacheManager.NULL_VALUE ? null : type.cast(local);
+        }
+//        0.1.布隆过滤器判断id一定不存在时直接返回
+        if (!bloomFilterManager.mightContain(keyPrefix, id)) {
+            return null;
+        }
+        long stamp = localCacheManager.version();
         log.debug("查询商户缓存:{}", key);
         //        1.从redis查商户缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
-        //        2.如果存在直接返回json
-        if (StrUtil.isNotBlank(json)) {
-            return JSONUtil.toBean(json, type);
-        }
-    //         如果不存在
+        byte[] bytes = getBytes(key);
+        //        2.如果存在直接解码返回，格式与类型不匹配时当作不存在
+        if (bytes != null && bytes.length > 0) {
+            CacheEntry<R> entry = cacheCodec.decode(bytes, type, false);
+            if (entry != null) {
+                localCacheManager.put(keyPrefix, key, entry.getValue(), stamp, unit.toMillis(time));
+                return entry.getValue();
+            }
+        } else if (bytes != null) {
     //        判断命中是否是空值
-    //        3.1 如果是空字符串返回redis
-        if (json != null) {
-    //              返回一个错误信息
+    //        3.1 如果是空字符串返回一个错误信息
+            localCacheManager.put(keyPrefix, key, null, stamp, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
             return null;
         }
     //        3.不存在，根据id从数据库查，
@@ -165,16 +198,30 @@ public class CacheClient1 {
         if (r == null) {
     //            redis写入空字符串
             stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            localCacheManager.put(keyPrefix, key, null, stamp, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
             return null;
         }
-    //        3.1转入json存入
-        String jsonStr = JSONUtil.toJsonStr(r);
-    //        4.再写入到redis
-
-        stringRedisTemplate.opsForValue().set(key, jsonStr, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    //        4.编码后写入到redis
+        setBytes(key, cacheCodec.encode(r, 0), CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        localCacheManager.put(keyPrefix, key, r, stamp, unit.toMillis(time));
         return r;
     }
 
+    private byte[] getBytes(String key) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey));
+    }
+
+    /**
+     * 写入编码后的值，time为null时不过期
+     */
+    private void setBytes(String key, byte[] value, Long time, TimeUnit unit) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        Expiration expiration = time == null ? Expiration.persistent() : Expiration.from(time, unit);
+        stringRedisTemplate.execute((RedisCallback<Boolean>) connection ->
+                connection.set(rawKey, value, expiration, RedisStringCommands.SetOption.upsert()));
+    }
+
     /**
      * 释放锁
      *
@@ -202,53 +249,8 @@ public class CacheClient1 {
      */
     public <R, ID> R queryWithMutex(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
-        String key = keyPrefix + id;
-//        1.从redis查商户缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
-//        2.如果存在直接返回json
-        if (StrUtil.isNotBlank(json)) {
-            return JSONUtil.toBean(json, type);
-
-        }
-        log.debug("查询商户缓存:{}", key);
-//        判断命中是否是空值
-//        3.如果是空字符串返回redis
-        if (json != null) {
-            // 返回一个错误信息
-            return null;
-        }
-
-//        4.缓存没命中获取互斥锁
-        String lock = "lock:shop:" + id;
-        R r = null;
-
-        try {
-//        4.1。判断是否获取锁成功 否休眠一段时间，重新查询缓存
-            if (!tryLock(lock)) {
-                sleep(50);
-                return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
-            }
-//        4.2.如果获取成功，查询数据库
-//        5.不存在，根据id从数据库查，
-            r = dbFallback.apply(id);
-//        5.1.如果数据库查不到，返回错误
-            if (r == null) {
-                //            redis写入空字符串
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                // 返回错误信息
-                return null;
-            }
-//        5.2转入json存入
-            String jsonStr = JSONUtil.toJsonStr(r);
-//        6.再写入到redis
-            this.set(key, jsonStr, time, unit);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        } finally {
-            //        7.释放互斥锁
-            unlock(lock);
-        }
-        return r;
+//        同一节点内合并重建，跨节点等待持锁节点的重建通知，不再休眠重试
+        return cacheClient.queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
     }
 
 }
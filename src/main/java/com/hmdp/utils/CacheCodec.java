@@ -0,0 +1,32 @@
+package com.hmdp.utils;
+
+/**
+ * CacheClient 写入Redis的值的编解码
+ * <p>
+ * 逻辑过期时间与值编码在一起，解码一次得到两者；空值标记（空字符串）不经过编解码
+ */
+public interface CacheCodec {
+
+    /**
+     * 是否能解码该格式，按首字节判断
+     */
+    boolean accepts(byte[] bytes);
+
+    /**
+     * 是否能编码该类型
+     */
+    boolean supports(Class<?> type);
+
+    /**
+     * 编码
+     * @param expireAt 逻辑过期时间，毫秒时间戳，0表示没有逻辑过期
+     */
+    byte[] encode(Object value, long expireAt);
+
+    /**
+     * 解码
+     * @param logical 是否为带逻辑过期时间的值
+     * @return 格式与目标类型不匹配时返回null，调用方当作未命中处理
+     */
+    <T> CacheEntry<T> decode(byte[] bytes, Class<T> type, boolean logical);
+}
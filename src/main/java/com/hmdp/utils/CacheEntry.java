@@ -0,0 +1,21 @@
+package com.hmdp.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 解码后的缓存值
+ */
+@Data
+@AllArgsConstructor
+public class CacheEntry<T> {
+    private T value;
+    /**
+     * 逻辑过期时间，毫秒时间戳，0表示没有逻辑过期
+     */
+    private long expireAt;
+
+    public boolean expired() {
+        return expireAt > 0 && expireAt <= System.currentTimeMillis();
+    }
+}
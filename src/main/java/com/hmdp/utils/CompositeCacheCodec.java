@@ -0,0 +1,61 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+
+/**
+ * CacheClient 使用的编解码
+ * <p>
+ * 1.写入使用 cache.codec.type 配置的格式，binary不支持的类型及null仍然写json；
+ * 2.读取按首字节识别格式，json和binary的数据都能读取，切换格式期间已有的缓存不需要清理；
+ * 3.滚动升级时旧版本节点不能读取binary格式，应当先以json上线所有节点，再切换为binary
+ */
+@Slf4j
+@Component
+public class CompositeCacheCodec implements CacheCodec {
+
+    private static final String TYPE_BINARY = "binary";
+
+    @Resource
+    private CacheProperties cacheProperties;
+
+    private final JsonCacheCodec json = new JsonCacheCodec();
+    private BinaryCacheCodec binary;
+
+    @PostConstruct
+    public void init() {
+        binary = new BinaryCacheCodec(cacheProperties.getCodec().getCompressThreshold());
+    }
+
+    @Override
+    public boolean accepts(byte[] bytes) {
+        return binary.accepts(bytes) || json.accepts(bytes);
+    }
+
+    @Override
+    public boolean supports(Class<?> type) {
+        return true;
+    }
+
+    @Override
+    public byte[] encode(Object value, long expireAt) {
+        if (value != null && TYPE_BINARY.equals(cacheProperties.getCodec().getType()) && binary.supports(value.getClass())) {
+            return binary.encode(value, expireAt);
+        }
+        return json.encode(value, expireAt);
+    }
+
+    @Override
+    public <T> CacheEntry<T> decode(byte[] bytes, Class<T> type, boolean logical) {
+        try {
+            return binary.accepts(bytes) ? binary.decode(bytes, type, logical) : json.decode(bytes, type, logical);
+        } catch (Exception e) {
+            log.warn("缓存数据解码失败，类型:{}，原因:{}", type.getName(), e.getMessage());
+            return null;
+        }
+    }
+}
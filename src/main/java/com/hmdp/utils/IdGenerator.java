@@ -0,0 +1,14 @@
+package com.hmdp.utils;
+
+/**
+ * 全局唯一id生成器
+ */
+public interface IdGenerator {
+
+    /**
+     * 生成id
+     * @param keyPrefix 业务前缀，例如 order，不同前缀可以配置不同的生成方式
+     * @return 全局唯一id
+     */
+    long nextId(String keyPrefix);
+}
@@ -0,0 +1,31 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * 按业务前缀配置的生成方式（seckill.id.modes）选择id生成器，注入 IdGenerator 时默认使用它
+ */
+@Primary
+@Component
+public class IdGeneratorRouter implements IdGenerator {
+
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private RedisIdWorker redisIdWorker;
+    @Resource
+    private SnowflakeIdWorker snowflakeIdWorker;
+
+    @Override
+    public long nextId(String keyPrefix) {
+        if (SeckillProperties.Id.SNOWFLAKE.equals(seckillProperties.getId().modeOf(keyPrefix))) {
+            return snowflakeIdWorker.nextId(keyPrefix);
+        }
+        // incr、segment 都由RedisIdWorker处理
+        return redisIdWorker.nextId(keyPrefix);
+    }
+}
@@ -0,0 +1,50 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * 原有的json格式，逻辑过期的值以 RedisData 包装
+ */
+public class JsonCacheCodec implements CacheCodec {
+
+    @Override
+    public boolean accepts(byte[] bytes) {
+        return bytes.length > 0 && (bytes[0] == '{' || bytes[0] == '[' || bytes[0] == '"');
+    }
+
+    @Override
+    public boolean supports(Class<?> type) {
+        return true;
+    }
+
+    @Override
+    public byte[] encode(Object value, long expireAt) {
+        if (expireAt <= 0) {
+            return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+        }
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(expireAt), ZoneId.systemDefault()));
+        return JSONUtil.toJsonStr(redisData).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> CacheEntry<T> decode(byte[] bytes, Class<T> type, boolean logical) {
+        String json = new String(bytes, StandardCharsets.UTF_8);
+        if (!logical) {
+            return new CacheEntry<>(JSONUtil.toBean(json, type), 0);
+        }
+        // 只解析一次，data直接转换为目标类型
+        JSONObject redisData = JSONUtil.parseObj(json);
+        JSONObject data = redisData.getJSONObject("data");
+        LocalDateTime expireTime = redisData.get("expireTime", LocalDateTime.class);
+        long expireAt = expireTime == null ? 0 : expireTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        return new CacheEntry<>(data == null ? null : data.toBean(type), expireAt);
+    }
+}
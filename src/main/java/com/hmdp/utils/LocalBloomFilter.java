@@ -0,0 +1,44 @@
+package com.hmdp.utils;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 进程内布隆过滤器，位数组保存在 AtomicLongArray 中，可并发读写
+ */
+public class LocalBloomFilter extends BloomFilter {
+
+    private final AtomicLongArray words;
+
+    public LocalBloomFilter(long expectedInsertions, double fpp) {
+        super(expectedInsertions, fpp);
+        this.words = new AtomicLongArray((int) ((bits + 63) >>> 6));
+    }
+
+    @Override
+    public void putAll(Collection<Long> ids) {
+        for (Long id : ids) {
+            for (long offset : offsets(id)) {
+                int index = (int) (offset >>> 6);
+                long mask = 1L << offset;
+                long word;
+                do {
+                    word = words.get(index);
+                    if ((word & mask) != 0) {
+                        break;
+                    }
+                } while (!words.compareAndSet(index, word, word | mask));
+            }
+        }
+    }
+
+    @Override
+    protected boolean allSet(long[] offsets) {
+        for (long offset : offsets) {
+            if ((words.get((int) (offset >>> 6)) & (1L << offset)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,215 @@
+package com.hmdp.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 进程内有界缓存，淘汰策略参照W-TinyLFU
+ * <p>
+ * 1.数据保存在ConcurrentHashMap中，读不加锁；
+ * 2.新写入的条目先进入容量1%的窗口区（LRU），从窗口区淘汰时与主区最久未访问的条目比较访问频率，
+ * 频率更高才进入主区，否则直接丢弃，偶发的一次性访问不会把热点数据挤出去；
+ * 3.访问频率由Count-Min Sketch估算，4行、每个计数器最大15，累计写入达到容量的10倍时所有计数减半，旧的热点逐渐冷却；
+ * 4.读时只在拿到锁的情况下记录访问顺序和频率，拿不到锁就放弃记录，读请求不会因为锁而排队；
+ * 5.每个条目有自己的过期时间，读到过期的条目时删除
+ */
+public class LocalCache<V> {
+
+    private final ConcurrentHashMap<String, Node<V>> data = new ConcurrentHashMap<>();
+    private final ReentrantLock policyLock = new ReentrantLock();
+    // 按访问顺序排列，最久未访问的在前
+    private final LinkedHashMap<String, Node<V>> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Node<V>> main = new LinkedHashMap<>(16, 0.75f, true);
+    private final int windowMax;
+    private final int mainMax;
+    private final FrequencySketch sketch;
+
+    public LocalCache(int maximumSize) {
+        this.windowMax = Math.max(1, maximumSize / 100);
+        this.mainMax = Math.max(1, maximumSize - windowMax);
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+    private static class Node<V> {
+        private final String key;
+        private final V value;
+        private final long expireAt;
+        private boolean inMain;
+
+        private Node(String key, V value, long expireAt) {
+            this.key = key;
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+
+    /**
+     * 查询，不存在或已过期返回null
+     */
+    public V get(String key) {
+        Node<V> node = data.get(key);
+        if (node == null) {
+            recordAccess(key, null);
+            return null;
+        }
+        if (node.expireAt <= System.currentTimeMillis()) {
+            remove(key);
+            return null;
+        }
+        recordAccess(key, node);
+        return node.value;
+    }
+
+    /**
+     * 写入，ttlMillis后过期
+     */
+    public void put(String key, V value, long ttlMillis) {
+        Node<V> node = new Node<>(key, value, System.currentTimeMillis() + ttlMillis);
+        policyLock.lock();
+        try {
+            sketch.increment(key);
+            Node<V> old = data.put(key, node);
+            if (old != null) {
+                // 替换值，保留原来所在的区域
+                node.inMain = old.inMain;
+                (old.inMain ? main : window).put(key, node);
+                return;
+            }
+            window.put(key, node);
+            evict();
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    public void remove(String key) {
+        policyLock.lock();
+        try {
+            Node<V> node = data.remove(key);
+            if (node != null) {
+                (node.inMain ? main : window).remove(key);
+            }
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    public int size() {
+        return data.size();
+    }
+
+    private void recordAccess(String key, Node<V> node) {
+        if (!policyLock.tryLock()) {
+            return;
+        }
+        try {
+            sketch.increment(key);
+            // 触发LinkedHashMap的访问排序，条目可能已被并发删除
+            if (node != null && data.get(key) == node) {
+                (node.inMain ? main : window).get(key);
+            }
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    /**
+     * 窗口区超出容量时，淘汰的条目与主区的淘汰候选按频率竞争主区的位置
+     */
+    private void evict() {
+        while (window.size() > windowMax) {
+            Iterator<Map.Entry<String, Node<V>>> it = window.entrySet().iterator();
+            Node<V> candidate = it.next().getValue();
+            it.remove();
+            if (main.size() < mainMax) {
+                admit(candidate);
+                continue;
+            }
+            Map.Entry<String, Node<V>> victim = main.entrySet().iterator().next();
+            if (sketch.frequency(candidate.key) > sketch.frequency(victim.getKey())) {
+                main.remove(victim.getKey());
+                data.remove(victim.getKey(), victim.getValue());
+                admit(candidate);
+            } else {
+                data.remove(candidate.key, candidate);
+            }
+        }
+    }
+
+    private void admit(Node<V> node) {
+        node.inMain = true;
+        main.put(node.key, node);
+    }
+
+    /**
+     * Count-Min Sketch，在policyLock内访问
+     */
+    private static class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final byte[][] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        private FrequencySketch(int maximumSize) {
+            int width = Integer.highestOneBit(Math.max(16, maximumSize - 1)) << 1;
+            this.table = new byte[DEPTH][width];
+            this.mask = width - 1;
+            this.sampleSize = Math.max(10 * maximumSize, 160);
+        }
+
+        private void increment(String key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < DEPTH; i++) {
+                int index = indexOf(hash, i);
+                if (table[i][index] < MAX_COUNT) {
+                    table[i][index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        private int frequency(String key) {
+            int hash = spread(key.hashCode());
+            int min = MAX_COUNT;
+            for (int i = 0; i < DEPTH; i++) {
+                min = Math.min(min, table[i][indexOf(hash, i)]);
+            }
+            return min;
+        }
+
+        /**
+         * 所有计数减半
+         */
+        private void reset() {
+            for (byte[] row : table) {
+                for (int j = 0; j < row.length; j++) {
+                    row[j] = (byte) (row[j] >>> 1);
+                }
+            }
+            additions /= 2;
+        }
+
+        private int indexOf(int hash, int i) {
+            int h = hash * SEEDS[i];
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private static int spread(int h) {
+            h ^= h >>> 17;
+            h *= 0xED5AD4BB;
+            h ^= h >>> 11;
+            return h;
+        }
+    }
+}
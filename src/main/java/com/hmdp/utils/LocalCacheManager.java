@@ -0,0 +1,134 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+
+/**
+ * CacheClient 的进程内一级缓存，Redis作为二级缓存
+ * <p>
+ * 1.只缓存 cache.local.ttl 中配置了前缀的key，保存反序列化后的对象，命中时不访问Redis、也不解析json，
+ * 返回的对象被多个请求共享，调用方不能修改；
+ * 2.数据库中不存在的记录以 NULL_VALUE 缓存 nullTtl；
+ * 3.删除缓存时通过频道 cache:invalidate 广播key，各节点（包括自己）收到后删除本地条目；
+ * 4.从Redis读取前记录失效版本号，写入一级缓存时版本号已变化说明期间有过失效，放弃写入，
+ * 避免失效之前读到的旧值在失效之后写进一级缓存
+ */
+@Component
+public class LocalCacheManager {
+
+    /**
+     * 缓存的空值
+     */
+    public static final Object NULL_VALUE = new Object();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Resource
+    private CacheProperties cacheProperties;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private LocalCache<Object> cache;
+    // 失效版本号，每收到或发出一次失效加一
+    private final AtomicLong version = new AtomicLong();
+    private Counter hitCounter;
+    private Counter missCounter;
+
+    @PostConstruct
+    public void init() {
+        CacheProperties.Local config = cacheProperties.getLocal();
+        cache = new LocalCache<>(config.getMaximumSize());
+        if (!config.isEnabled()) {
+            return;
+        }
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            version.incrementAndGet();
+            cache.remove(new String(message.getBody(), StandardCharsets.UTF_8));
+        }, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        hitCounter = Counter.builder("cache.local.requests").tag("result", "hit")
+                .description("一级缓存命中次数").register(meterRegistry);
+        missCounter = Counter.builder("cache.local.requests").tag("result", "miss")
+                .description("一级缓存未命中次数").register(meterRegistry);
+        Gauge.builder("cache.local.size", cache, LocalCache::size)
+                .description("一级缓存条目数").register(meterRegistry);
+    }
+
+    /**
+     * 该前缀是否使用一级缓存
+     */
+    public boolean enabled(String keyPrefix) {
+        CacheProperties.Local config = cacheProperties.getLocal();
+        return config.isEnabled() && config.getTtl().containsKey(keyPrefix);
+    }
+
+    /**
+     * 查询一级缓存
+     * @return 缓存的对象，空值返回 NULL_VALUE，未命中返回null
+     */
+    public Object get(String keyPrefix, String key) {
+        if (!enabled(keyPrefix)) {
+            return null;
+        }
+        Object value = cache.get(key);
+        (value == null ? missCounter : hitCounter).increment();
+        return value;
+    }
+
+    /**
+     * 当前的失效版本号，在读取Redis或数据库之前获取
+     */
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * 写入一级缓存，value为null时缓存空值
+     * @param stamp 读取数据之前获取的失效版本号
+     * @param maxTtlMillis 不超过二级缓存的有效期
+     */
+    public void put(String keyPrefix, String key, Object value, long stamp, long maxTtlMillis) {
+        if (!enabled(keyPrefix)) {
+            return;
+        }
+        CacheProperties.Local config = cacheProperties.getLocal();
+        long ttl = TimeUnit.SECONDS.toMillis(value == null ? config.getNullTtl() : config.getTtl().get(keyPrefix));
+        if (maxTtlMillis > 0) {
+            ttl = Math.min(ttl, maxTtlMillis);
+        }
+        if (ttl <= 0 || version.get() != stamp) {
+            return;
+        }
+        cache.put(key, value == null ? NULL_VALUE : value, ttl);
+        // 写入期间收到了失效
+        if (version.get() != stamp) {
+            cache.remove(key);
+        }
+    }
+
+    /**
+     * 删除本地条目并广播到其他节点
+     */
+    public void invalidate(String key) {
+        version.incrementAndGet();
+        cache.remove(key);
+        if (cacheProperties.getLocal().isEnabled()) {
+            stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 基于Redis位图的布隆过滤器，多个节点共享
+ * <p>
+ * 查询用一条 BITFIELD key GET u1 o1 GET u1 o2 ...，写入用 BITFIELD key SET u1 o1 1 ...，
+ * 批量写入时按 BATCH 个id一条命令、通过管道发送；位数和哈希函数个数由配置计算，各节点的配置需要一致
+ */
+public class RedisBloomFilter extends BloomFilter {
+
+    private static final BitFieldSubCommands.BitFieldType BIT = BitFieldSubCommands.BitFieldType.unsigned(1);
+    // 每条BITFIELD命令写入的id数
+    private static final int BATCH = 500;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final String key;
+
+    public RedisBloomFilter(StringRedisTemplate stringRedisTemplate, String key, long expectedInsertions, double fpp) {
+        super(expectedInsertions, fpp);
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.key = key;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public void putAll(Collection<Long> ids) {
+        List<Long> list = new ArrayList<>(ids);
+        if (list.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                for (int from = 0; from < list.size(); from += BATCH) {
+                    BitFieldSubCommands commands = BitFieldSubCommands.create();
+                    for (Long id : list.subList(from, Math.min(from + BATCH, list.size()))) {
+                        for (long offset : offsets(id)) {
+                            commands = commands.set(BIT).valueAt(offset).to(1);
+                        }
+                    }
+                    operations.opsForValue().bitField(key, commands);
+                }
+                return null;
+            }
+        });
+    }
+
+    @Override
+    protected boolean allSet(long[] offsets) {
+        BitFieldSubCommands commands = BitFieldSubCommands.create();
+        for (long offset : offsets) {
+            commands = commands.get(BIT).valueAt(offset);
+        }
+        List<Long> result = stringRedisTemplate.opsForValue().bitField(key, commands);
+        if (result == null) {
+            return true;
+        }
+        for (Long bit : result) {
+            if (bit == null || bit == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,80 @@
+package com.hmdp.utils;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.*;
+
+import static com.hmdp.utils.RedisConstants.DELAY_QUEUE_KEY;
+
+/**
+ * 基于Redis ZSET的延时队列
+ * <p>
+ * 任务保存在 delay:{topic}，score为到期时间；各节点通过 delay-claim.lua 批量认领即将到期的任务，
+ * 认领的任务移入 delay:{topic}:processing，score为处理租约的到期时间，处理完成后 ack 删除；
+ * 节点宕机时租约过期，任务会被其他节点重新认领，同一任务可能执行多次，处理逻辑需要幂等
+ */
+public class RedisDelayQueue {
+
+    private static final DefaultRedisScript<List> CLAIM_SCRIPT;
+
+    static {
+        CLAIM_SCRIPT = new DefaultRedisScript<>();
+        CLAIM_SCRIPT.setLocation(new ClassPathResource("delay-claim.lua"));
+        CLAIM_SCRIPT.setResultType(List.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final String queueKey;
+    private final String processingKey;
+
+    public RedisDelayQueue(StringRedisTemplate stringRedisTemplate, String topic) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.queueKey = DELAY_QUEUE_KEY + "{" + topic + "}";
+        this.processingKey = queueKey + ":processing";
+    }
+
+    /**
+     * 添加任务，ZADD delay:{topic} deadline1 m1 deadline2 m2 ...
+     */
+    public void offer(Map<String, Long> deadlines) {
+        if (deadlines.isEmpty()) {
+            return;
+        }
+        Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>(deadlines.size());
+        deadlines.forEach((member, deadline) -> tuples.add(new DefaultTypedTuple<>(member, deadline.doubleValue())));
+        stringRedisTemplate.opsForZSet().add(queueKey, tuples);
+    }
+
+    /**
+     * 认领 now + prefetch 之前到期的任务，最多 limit 个
+     * @return 任务及其到期时间，按到期时间排序
+     */
+    public LinkedHashMap<String, Long> claim(long now, long prefetch, int limit, long lease) {
+        @SuppressWarnings("unchecked")
+        List<String> result = stringRedisTemplate.execute(CLAIM_SCRIPT,
+                Arrays.asList(queueKey, processingKey),
+                String.valueOf(now), String.valueOf(prefetch), String.valueOf(limit), String.valueOf(lease));
+        LinkedHashMap<String, Long> tasks = new LinkedHashMap<>();
+        if (result == null) {
+            return tasks;
+        }
+        for (int i = 0; i + 1 < result.size(); i += 2) {
+            tasks.put(result.get(i), (long) Double.parseDouble(result.get(i + 1)));
+        }
+        return tasks;
+    }
+
+    /**
+     * 任务处理完成
+     */
+    public void ack(Collection<String> members) {
+        if (members.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.opsForZSet().remove(processingKey, members.toArray());
+    }
+}
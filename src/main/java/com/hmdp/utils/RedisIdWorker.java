@@ -1,17 +1,32 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.config.SeckillProperties;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * 生成唯一id
+ * 生成唯一id，每个序列号来自Redis
+ * <p>
+ * id = 31位秒级时间戳 << 32 | 当天的序列号。
+ * incr 模式每个id执行一次INCR；segment 模式下序列号不再每次INCR，而是用 INCRBY 一次预留一段，在本地自增分配，
+ * 剩余量低于 prefetchRatio 时异步预取下一段；号段与日期绑定，跨天后立即切换到新一天的key，
+ * 同一个节点内生成的id单调递增；第62位在2056年之前为0，与 SnowflakeIdWorker 带模式位的id不会重复
  */
+@Slf4j
 @Component
-public class RedisIdWorker {
+public class RedisIdWorker implements IdGenerator {
     /**
      * 开始时间戳
      */
@@ -21,12 +36,49 @@ public class RedisIdWorker {
      */
     private static final int COUNT_BITS = 32;
 
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    private static final ExecutorService PREFETCH_EXECUTOR =
+            Executors.newSingleThreadExecutor(new NamedThreadFactory("id-segment-", true));
+
     private StringRedisTemplate stringRedisTemplate;
+    private SeckillProperties seckillProperties;
+
+    // 每个业务前缀的号段
+    private final Map<String, Segments> segments = new ConcurrentHashMap<>();
 
-    public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate, SeckillProperties seckillProperties) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.seckillProperties = seckillProperties;
+    }
+
+    /**
+     * 一段连续的序列号 [cursor, end)
+     */
+    private static class Segment {
+        private final String date;
+        private final long start;
+        private final AtomicLong cursor;
+        private final long end;
+
+        private Segment(String date, long start, long end) {
+            this.date = date;
+            this.start = start;
+            this.cursor = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+
+    private static class Segments {
+        // 正在分配的号段
+        private volatile Segment current;
+        // 预取好的下一段
+        private volatile Segment next;
+        // 是否正在异步预取
+        private final AtomicBoolean prefetching = new AtomicBoolean();
     }
 
+    @Override
     public long nextId(String keyPrefix) {
         // 1.生成时间戳
         LocalDateTime now = LocalDateTime.now();
@@ -35,11 +87,77 @@ public class RedisIdWorker {
 
         // 2.生成序列号
         // 2.1.获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        // 2.2.自增长
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        String date = now.format(DATE_FORMATTER);
+        // 2.2.自增长，号段模式下从本地号段分配
+        long count = SeckillProperties.Id.SEGMENT.equals(seckillProperties.getId().modeOf(keyPrefix))
+                ? nextSequence(keyPrefix, date)
+                : stringRedisTemplate.opsForValue().increment(key(keyPrefix, date));
 
         // 3.拼接并返回
         return timestamp << COUNT_BITS | count;
     }
+
+    private long nextSequence(String keyPrefix, String date) {
+        Segments s = segments.computeIfAbsent(keyPrefix, k -> new Segments());
+        SeckillProperties.Id config = seckillProperties.getId();
+        while (true) {
+            Segment current = s.current;
+            if (current != null && current.date.equals(date)) {
+                long value = current.cursor.getAndIncrement();
+                if (value < current.end) {
+                    // 剩余量低于阈值，异步预取下一段
+                    if (current.end - value <= config.getSegmentSize() * config.getPrefetchRatio()) {
+                        prefetch(keyPrefix, date, s);
+                    }
+                    return value;
+                }
+            }
+            // 本段用完或已跨天，切换到下一段，没有预取好的号段时同步获取
+            synchronized (s) {
+                if (s.current == current) {
+                    Segment next = s.next;
+                    s.next = null;
+                    if (next == null || !next.date.equals(date)) {
+                        next = fetch(keyPrefix, date);
+                    }
+                    s.current = next;
+                }
+            }
+        }
+    }
+
+    private void prefetch(String keyPrefix, String date, Segments s) {
+        if (s.next != null || !s.prefetching.compareAndSet(false, true)) {
+            return;
+        }
+        PREFETCH_EXECUTOR.submit(() -> {
+            try {
+                Segment next = fetch(keyPrefix, date);
+                synchronized (s) {
+                    // 预取期间当前段可能已被同步切换到更大的号段，此时丢弃预取结果，保证单调递增
+                    Segment current = s.current;
+                    if (s.next == null && (current == null || next.start >= current.end)) {
+                        s.next = next;
+                    }
+                }
+            } catch (Exception e) {
+                log.error("预取id号段异常", e);
+            } finally {
+                s.prefetching.set(false);
+            }
+        });
+    }
+
+    /**
+     * INCRBY icr:{prefix}:{yyyy:MM:dd} segmentSize，返回值为本段最后一个序列号
+     */
+    private Segment fetch(String keyPrefix, String date) {
+        int size = seckillProperties.getId().getSegmentSize();
+        Long last = stringRedisTemplate.opsForValue().increment(key(keyPrefix, date), size);
+        return new Segment(date, last - size + 1, last + 1);
+    }
+
+    private static String key(String keyPrefix, String date) {
+        return "icr:" + keyPrefix + ":" + date;
+    }
 }
@@ -0,0 +1,129 @@
+package com.hmdp.utils;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀相关的Redis key
+ * <p>
+ * 同一张优惠券的库存、下单用户、订单stream都带上 {voucherId} 哈希标签，落在Redis Cluster的同一个slot，
+ * 可以在一个Lua脚本中通过KEYS一起操作；分段库存的每个分段使用 {voucherId:i} 标签，分散到不同slot
+ */
+public class SeckillKeys {
+
+    /**
+     * 库存 seckill:stock:{voucherId}
+     */
+    public static String stockKey(Long voucherId) {
+        return SECKILL_STOCK_KEY + tag(voucherId);
+    }
+
+    /**
+     * 下单用户 seckill:order:{voucherId}
+     */
+    public static String orderKey(Long voucherId) {
+        return SECKILL_ORDER_KEY + tag(voucherId);
+    }
+
+    /**
+     * 下单用户位图 seckill:buyers:{voucherId}，userId作为位偏移
+     */
+    public static String buyersKey(Long voucherId) {
+        return SECKILL_BUYERS_KEY + tag(voucherId);
+    }
+
+    /**
+     * 秒杀时间窗口 seckill:window:{voucherId}，字段 begin、end 为毫秒时间戳
+     */
+    public static String windowKey(Long voucherId) {
+        return SECKILL_WINDOW_KEY + tag(voucherId);
+    }
+
+    /**
+     * 已归还库存的订单id seckill:released:{voucherId}，保证取消订单时归还Redis库存可以重复执行
+     */
+    public static String releasedKey(Long voucherId) {
+        return SECKILL_RELEASED_KEY + tag(voucherId);
+    }
+
+    /**
+     * 订单stream stream.orders:{voucherId}
+     */
+    public static String streamKey(Long voucherId) {
+        return SECKILL_ORDER_STREAM + ":" + tag(voucherId);
+    }
+
+    /**
+     * 订单状态 seckill:status:{orderId}，按订单id查询，不与优惠券的key放在同一个slot
+     */
+    public static String statusKey(Long orderId) {
+        return SECKILL_STATUS_KEY + tag(orderId);
+    }
+
+    /**
+     * 分段库存 seckill:stock:{voucherId:i}
+     */
+    public static String segmentStockKey(Long voucherId, int segment) {
+        return SECKILL_STOCK_KEY + tag(voucherId + ":" + segment);
+    }
+
+    /**
+     * 分段下单用户 seckill:order:{voucherId:i}
+     */
+    public static String segmentOrderKey(Long voucherId, int segment) {
+        return SECKILL_ORDER_KEY + tag(voucherId + ":" + segment);
+    }
+
+    /**
+     * 分段下单用户位图 seckill:buyers:{voucherId:i}
+     */
+    public static String segmentBuyersKey(Long voucherId, int segment) {
+        return SECKILL_BUYERS_KEY + tag(voucherId + ":" + segment);
+    }
+
+    /**
+     * 分段秒杀时间窗口 seckill:window:{voucherId:i}，每个分段保存一份相同的时间窗口
+     */
+    public static String segmentWindowKey(Long voucherId, int segment) {
+        return SECKILL_WINDOW_KEY + tag(voucherId + ":" + segment);
+    }
+
+    /**
+     * 分段已归还库存的订单id seckill:released:{voucherId:i}
+     */
+    public static String segmentReleasedKey(Long voucherId, int segment) {
+        return SECKILL_RELEASED_KEY + tag(voucherId + ":" + segment);
+    }
+
+    /**
+     * 分段订单stream stream.orders:{voucherId:i}
+     */
+    public static String segmentStreamKey(Long voucherId, int segment) {
+        return SECKILL_ORDER_STREAM + ":" + tag(voucherId + ":" + segment);
+    }
+
+    /**
+     * 订单stream对应的死信stream，与原stream在同一个slot：stream.orders:{5} -> stream.orders.dlq:{5}
+     */
+    public static String deadLetterKey(String streamKey) {
+        return SECKILL_ORDER_DLQ + streamKey.substring(SECKILL_ORDER_STREAM.length());
+    }
+
+    /**
+     * 从订单stream、库存等带哈希标签的key中解析优惠券id，旧的全局stream返回null
+     */
+    public static Long voucherIdOf(String streamKey) {
+        int start = streamKey.indexOf('{');
+        if (start < 0) {
+            return null;
+        }
+        int end = streamKey.indexOf(':', start);
+        if (end < 0) {
+            end = streamKey.indexOf('}', start);
+        }
+        return Long.valueOf(streamKey.substring(start + 1, end));
+    }
+
+    private static String tag(Object id) {
+        return "{" + id + "}";
+    }
+}
@@ -0,0 +1,106 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+import static com.hmdp.utils.RedisConstants.CACHE_LOADED_CHANNEL;
+
+/**
+ * 缓存重建的合并与通知
+ * <p>
+ * 1.进程内：同一个key同时只有一个线程执行加载，其他线程等待同一个 CompletableFuture 的结果；
+ * 2.跨节点：持有Redis互斥锁的节点重建完成后在频道 cache:loaded 发布key，
+ * 没拿到锁的节点先 subscribe 登记，再检查一次缓存，然后 await 等待通知，不再休眠轮询
+ */
+@Component
+public class SingleFlight {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    // 进程内正在加载的key
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> inflight = new ConcurrentHashMap<>();
+    // 等待其他节点重建完成的key
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> waiting = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            CompletableFuture<Void> signal = waiting.remove(new String(message.getBody(), StandardCharsets.UTF_8));
+            if (signal != null) {
+                signal.complete(null);
+            }
+        }, new ChannelTopic(CACHE_LOADED_CHANNEL));
+    }
+
+    /**
+     * 加载key，同一个key的并发调用只执行一次loader
+     */
+    @SuppressWarnings("unchecked")
+    public <R> R load(String key, Supplier<R> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> running = inflight.putIfAbsent(key, future);
+        if (running != null) {
+            // 其他线程正在加载，等待它的结果
+            try {
+                return (R) running.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        try {
+            R result = loader.get();
+            future.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inflight.remove(key, future);
+        }
+    }
+
+    /**
+     * 登记等待key的重建通知，应当在检查缓存之前调用，避免检查之后、等待之前的通知丢失
+     */
+    public CompletableFuture<Void> subscribe(String key) {
+        return waiting.computeIfAbsent(key, k -> new CompletableFuture<>());
+    }
+
+    /**
+     * 等待重建通知，线程被中断时抛出异常
+     * @return 超时返回false
+     */
+    public boolean await(String key, CompletableFuture<Void> signal, long timeoutMillis) {
+        try {
+            signal.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            waiting.remove(key, signal);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            waiting.remove(key, signal);
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 重建完成、释放锁之后调用，唤醒其他节点上等待的线程
+     */
+    public void notifyLoaded(String key) {
+        stringRedisTemplate.convertAndSend(CACHE_LOADED_CHANNEL, key);
+    }
+}
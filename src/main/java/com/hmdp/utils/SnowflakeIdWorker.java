@@ -0,0 +1,200 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import com.hmdp.config.SeckillProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 雪花算法生成id，生成时不访问网络
+ * <p>
+ * id = 1 << 62 | 40位毫秒时间戳 << 22 | 10位workerId << 12 | 12位毫秒内序列号。
+ * 第62位是模式位：RedisIdWorker 的id为31位秒级时间戳 << 32，在2056年之前第62位都是0，
+ * 因此同一业务前缀从 incr/segment 切换到 snowflake 后，新id不会与已发出的id重复，且都大于已发出的id；
+ * 反过来从 snowflake 切回 incr/segment 仍然不会重复，但新id小于已发出的雪花id，不再单调递增。
+ * workerId在第一次使用时从Redis租借（SET id:worker:{n} 节点标示 NX EX ttl），定时续期；
+ * 续期失败超过租约有效期后拒绝生成，避免与接管了同一workerId的节点产生重复id。
+ * 时钟回拨不超过 maxClockBackward 毫秒时等待追上，超过时拒绝生成
+ */
+@Slf4j
+@Component
+public class SnowflakeIdWorker implements IdGenerator {
+    /**
+     * 开始时间戳，毫秒
+     */
+    private static final long BEGIN_TIMESTAMP = 1640995200000L;
+    /**
+     * workerId的位数
+     */
+    private static final int WORKER_BITS = 10;
+    /**
+     * 序列号的位数
+     */
+    private static final int SEQUENCE_BITS = 12;
+    private static final int MAX_WORKER_ID = (1 << WORKER_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    /**
+     * 时间戳的位数，最多使用到2056年
+     */
+    private static final int TIMESTAMP_BITS = 40;
+    /**
+     * 模式位，与 RedisIdWorker 生成的id区分开
+     */
+    private static final long MODE_BIT = 1L << 62;
+
+    private static final String WORKER_KEY_PREFIX = "id:worker:";
+    private static final String ID_PREFIX = UUID.randomUUID().toString(true);
+
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+
+    static {
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("worker-renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+    }
+
+    private StringRedisTemplate stringRedisTemplate;
+    private SeckillProperties seckillProperties;
+
+    // 租到的workerId，-1表示还没有租到
+    private volatile int workerId = -1;
+    // 租约有效期截止时间，毫秒
+    private volatile long leaseValidUntil;
+
+    private long lastTimestamp = -1;
+    private long sequence;
+
+    public SnowflakeIdWorker(StringRedisTemplate stringRedisTemplate, SeckillProperties seckillProperties) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.seckillProperties = seckillProperties;
+    }
+
+    @Override
+    public synchronized long nextId(String keyPrefix) {
+        // 1.确认workerId租约有效
+        if (workerId < 0 || System.currentTimeMillis() >= leaseValidUntil) {
+            acquireWorkerId();
+        }
+        // 2.生成时间戳，处理时钟回拨
+        long timestamp = System.currentTimeMillis();
+        if (timestamp < lastTimestamp) {
+            long backward = lastTimestamp - timestamp;
+            if (backward > seckillProperties.getId().getMaxClockBackward()) {
+                throw new IllegalStateException("时钟回拨" + backward + "毫秒，拒绝生成id");
+            }
+            timestamp = waitUntil(lastTimestamp);
+        }
+        // 3.生成序列号，同一毫秒内用完时等到下一毫秒
+        if (timestamp == lastTimestamp) {
+            sequence = (sequence + 1) & SEQUENCE_MASK;
+            if (sequence == 0) {
+                timestamp = waitUntil(lastTimestamp + 1);
+            }
+        } else {
+            sequence = 0;
+        }
+        lastTimestamp = timestamp;
+        // 4.拼接并返回，时间戳超出位数后会占用模式位，拒绝生成
+        long elapsed = timestamp - BEGIN_TIMESTAMP;
+        if (elapsed >>> TIMESTAMP_BITS != 0) {
+            throw new IllegalStateException("时间戳超出" + TIMESTAMP_BITS + "位，拒绝生成id");
+        }
+        return MODE_BIT
+                | elapsed << (WORKER_BITS + SEQUENCE_BITS)
+                | (long) workerId << SEQUENCE_BITS
+                | sequence;
+    }
+
+    private static long waitUntil(long target) {
+        long timestamp = System.currentTimeMillis();
+        while (timestamp < target) {
+            Thread.yield();
+            timestamp = System.currentTimeMillis();
+        }
+        return timestamp;
+    }
+
+    /**
+     * 依次尝试 SET id:worker:{n} 节点标示 NX EX ttl，租到第一个空闲的workerId
+     */
+    private void acquireWorkerId() {
+        long ttl = seckillProperties.getId().getWorkerLeaseTtl();
+        // 原来的workerId还能续上时继续使用
+        if (workerId >= 0 && renew()) {
+            return;
+        }
+        for (int i = 0; i <= MAX_WORKER_ID; i++) {
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(WORKER_KEY_PREFIX + i, ID_PREFIX, ttl, TimeUnit.SECONDS);
+            if (Boolean.TRUE.equals(success)) {
+                leaseValidUntil = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttl);
+                workerId = i;
+                log.info("租到workerId:{}", i);
+                return;
+            }
+        }
+        throw new IllegalStateException("没有空闲的workerId");
+    }
+
+    private boolean renew() {
+        long ttl = seckillProperties.getId().getWorkerLeaseTtl();
+        long start = System.currentTimeMillis();
+        Long result = stringRedisTemplate.execute(RENEW_SCRIPT,
+                Collections.singletonList(WORKER_KEY_PREFIX + workerId),
+                ID_PREFIX, String.valueOf(ttl));
+        if (result == null || result == 0) {
+            return false;
+        }
+        // 以发出续期命令的时间为准计算有效期，偏保守
+        leaseValidUntil = start + TimeUnit.SECONDS.toMillis(ttl);
+        return true;
+    }
+
+    /**
+     * 每隔三分之一租约时间续期一次
+     */
+    @Scheduled(fixedDelayString = "#{${seckill.id.worker-lease-ttl:30} * 1000 / 3}")
+    public void heartbeat() {
+        if (workerId < 0) {
+            return;
+        }
+        try {
+            if (!renew()) {
+                log.error("workerId:{}的租约已失效，下次生成id时重新租借", workerId);
+                synchronized (this) {
+                    leaseValidUntil = 0;
+                }
+            }
+        } catch (Exception e) {
+            log.error("续期workerId租约异常", e);
+        }
+    }
+
+    /**
+     * 节点下线时归还workerId
+     */
+    @PreDestroy
+    public void release() {
+        if (workerId < 0) {
+            return;
+        }
+        try {
+            stringRedisTemplate.execute(UNLOCK_SCRIPT,
+                    Collections.singletonList(WORKER_KEY_PREFIX + workerId), ID_PREFIX);
+        } catch (Exception e) {
+            log.error("归还workerId异常", e);
+        }
+    }
+}
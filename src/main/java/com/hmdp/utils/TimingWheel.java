@@ -0,0 +1,189 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内多层时间轮，用于毫秒级精度的延时执行
+ * <p>
+ * 第一层每格 tickMs，共 wheelSize 格；超出本层范围的任务放入上一层，上一层每格为下一层一整圈的时长，按需创建。
+ * 只有非空的格子会放入 DelayQueue，工作线程等到最近一个格子到期时推进时钟，
+ * 把格子中的任务重新放入时间轮：上层的任务逐层降级，已到期的任务直接执行。
+ * 任务在工作线程中执行，应当只做入队之类的轻量操作
+ */
+@Slf4j
+public class TimingWheel {
+
+    private final Level root;
+    private final DelayQueue<Bucket> queue = new DelayQueue<>();
+    private final ExecutorService worker;
+    private volatile boolean running = true;
+
+    public TimingWheel(String name, long tickMs, int wheelSize) {
+        this.root = new Level(tickMs, wheelSize, System.currentTimeMillis());
+        this.worker = Executors.newSingleThreadExecutor(new NamedThreadFactory(name + "-", true));
+        this.worker.submit(this::advanceLoop);
+    }
+
+    /**
+     * 在 deadline（毫秒时间戳）执行任务，已经到期的任务立即执行
+     */
+    public void schedule(long deadline, Runnable action) {
+        Task task = new Task(deadline, action);
+        boolean added;
+        synchronized (this) {
+            added = root.add(task);
+        }
+        if (!added) {
+            run(task);
+        }
+    }
+
+    public void stop() {
+        running = false;
+        worker.shutdownNow();
+    }
+
+    private void advanceLoop() {
+        while (running) {
+            try {
+                Bucket bucket = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (bucket == null) {
+                    continue;
+                }
+                List<Task> due = new ArrayList<>();
+                synchronized (this) {
+                    // 1.推进各层时钟到该格子的到期时间
+                    root.advance(bucket.expiration.get());
+                    // 2.格子中的任务重新放入时间轮，放不进去的已经到期
+                    for (Task task : bucket.drain()) {
+                        if (!root.add(task)) {
+                            due.add(task);
+                        }
+                    }
+                }
+                due.forEach(this::run);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("时间轮推进异常", e);
+            }
+        }
+    }
+
+    private void run(Task task) {
+        try {
+            task.action.run();
+        } catch (Exception e) {
+            log.error("时间轮任务执行异常", e);
+        }
+    }
+
+    private static class Task {
+        private final long deadline;
+        private final Runnable action;
+
+        private Task(long deadline, Runnable action) {
+            this.deadline = deadline;
+            this.action = action;
+        }
+    }
+
+    /**
+     * 一个格子，到期时间为格子的起始时间
+     */
+    private static class Bucket implements Delayed {
+        private final AtomicLong expiration = new AtomicLong(-1);
+        private final List<Task> tasks = new ArrayList<>();
+
+        /**
+         * 设置到期时间，返回是否变化，变化时需要重新放入 DelayQueue
+         */
+        private boolean setExpiration(long expiration) {
+            return this.expiration.getAndSet(expiration) != expiration;
+        }
+
+        private synchronized void add(Task task) {
+            tasks.add(task);
+        }
+
+        private synchronized List<Task> drain() {
+            List<Task> drained = new ArrayList<>(tasks);
+            tasks.clear();
+            expiration.set(-1);
+            return drained;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(Math.max(expiration.get() - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(expiration.get(), ((Bucket) o).expiration.get());
+        }
+    }
+
+    /**
+     * 时间轮的一层
+     */
+    private class Level {
+        private final long tickMs;
+        private final int wheelSize;
+        private final long interval;
+        private final Bucket[] buckets;
+        // 本层当前时间，按 tickMs 向下取整
+        private long currentTime;
+        private Level overflow;
+
+        private Level(long tickMs, int wheelSize, long startMs) {
+            this.tickMs = tickMs;
+            this.wheelSize = wheelSize;
+            this.interval = tickMs * wheelSize;
+            this.buckets = new Bucket[wheelSize];
+            for (int i = 0; i < wheelSize; i++) {
+                buckets[i] = new Bucket();
+            }
+            this.currentTime = startMs - startMs % tickMs;
+        }
+
+        /**
+         * 放入任务，已经到期时返回false
+         */
+        private boolean add(Task task) {
+            long deadline = task.deadline;
+            if (deadline < currentTime + tickMs) {
+                return false;
+            }
+            if (deadline < currentTime + interval) {
+                long virtualId = deadline / tickMs;
+                Bucket bucket = buckets[(int) (virtualId % wheelSize)];
+                bucket.add(task);
+                if (bucket.setExpiration(virtualId * tickMs)) {
+                    queue.offer(bucket);
+                }
+                return true;
+            }
+            if (overflow == null) {
+                overflow = new Level(interval, wheelSize, currentTime);
+            }
+            return overflow.add(task);
+        }
+
+        private void advance(long time) {
+            if (time >= currentTime + tickMs) {
+                currentTime = time - time % tickMs;
+                if (overflow != null) {
+                    overflow.advance(currentTime);
+                }
+            }
+        }
+    }
+}
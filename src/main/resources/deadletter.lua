@@ -0,0 +1,17 @@
+-- 把pending-list中的消息转移到死信队列，并确认原消息
+-- KEYS[1] 订单stream，KEYS[2] 死信stream
+-- ARGV[1] 消费者组，ARGV[2] 消息id，ARGV[3] 投递次数，ARGV[4] 最后持有的消费者
+local entries = redis.call('xrange', KEYS[1], ARGV[2], ARGV[2])
+if (#entries > 0) then
+    -- 原消息的字段，追加来源信息后写入死信队列
+    local fields = entries[1][2]
+    table.insert(fields, 'sourceId')
+    table.insert(fields, ARGV[2])
+    table.insert(fields, 'deliveries')
+    table.insert(fields, ARGV[3])
+    table.insert(fields, 'consumer')
+    table.insert(fields, ARGV[4])
+    redis.call('xadd', KEYS[2], '*', unpack(fields))
+end
+-- 消息已被裁剪时也要确认，否则会一直留在pending-list中
+return redis.call('xack', KEYS[1], ARGV[1], ARGV[2])
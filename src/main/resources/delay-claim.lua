@@ -0,0 +1,27 @@
+-- 从延时队列中认领到期的任务
+-- KEYS[1] 延时任务zset，score为到期时间；KEYS[2] 处理中的任务zset，score为处理租约的到期时间，两个key带有同一个哈希标签
+-- ARGV[1] 当前时间（毫秒），ARGV[2] 预取时间窗口（毫秒），ARGV[3] 最多认领的任务数，ARGV[4] 处理租约（毫秒）
+-- 返回 {member1, deadline1, member2, deadline2, ...}
+local now = tonumber(ARGV[1])
+local limit = tonumber(ARGV[3])
+local lease = tonumber(ARGV[4])
+local result = {}
+-- 1.租约过期的任务（认领的节点宕机或处理失败）重新认领，已经过了到期时间，立即执行
+local expired = redis.call('zrangebyscore', KEYS[2], '-inf', now, 'LIMIT', 0, limit)
+for i = 1, #expired do
+    redis.call('zadd', KEYS[2], now + lease, expired[i])
+    table.insert(result, expired[i])
+    table.insert(result, ARGV[1])
+end
+-- 2.预取时间窗口内到期的任务，移入处理中，由本节点的时间轮按到期时间执行
+local remaining = limit - #expired
+if(remaining > 0) then
+    local due = redis.call('zrangebyscore', KEYS[1], '-inf', now + tonumber(ARGV[2]), 'WITHSCORES', 'LIMIT', 0, remaining)
+    for i = 1, #due, 2 do
+        redis.call('zrem', KEYS[1], due[i])
+        redis.call('zadd', KEYS[2], tonumber(due[i + 1]) + lease, due[i])
+        table.insert(result, due[i])
+        table.insert(result, due[i + 1])
+    end
+end
+return result
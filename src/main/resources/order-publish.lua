@@ -0,0 +1,4 @@
+-- 补发订单消息（例如WAL回放），加载时拼接在 seckill-order.lua 之后
+-- KEYS[1] 订单stream，ARGV[1] 用户id，ARGV[2] 优惠券id，ARGV[3] 订单id
+enqueueOrder(KEYS[1], ARGV[1], ARGV[2], ARGV[3])
+return 0
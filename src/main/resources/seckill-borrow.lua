@@ -0,0 +1,9 @@
+-- 从兄弟分段借一个库存
+-- KEYS[1] 分段库存key
+-- 借到返回1，库存不足或分段还没有预热返回0
+local stock = tonumber(redis.call('get', KEYS[1]))
+if(stock ~= nil and stock > 0) then
+    redis.call('incrby', KEYS[1], -1)
+    return 1
+end
+return 0
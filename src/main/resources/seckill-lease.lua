@@ -0,0 +1,14 @@
+-- 从Redis库存中租借一批库存到本节点
+-- KEYS[1] 库存key
+-- ARGV[1] 申请数量
+-- 返回实际租到的数量，库存不足时返回剩余全部，没有库存返回0，库存key不存在（还没有预热）返回-1
+local stock = tonumber(redis.call('get', KEYS[1]))
+if(stock == nil) then
+    return -1
+end
+if(stock <= 0) then
+    return 0
+end
+local n = math.min(stock, tonumber(ARGV[1]))
+redis.call('incrby', KEYS[1], -n)
+return n
@@ -0,0 +1,27 @@
+-- 库存已在本节点租约中扣减，这里只做一人一单校验并发送订单消息；加载时拼接在 seckill-order.lua 之后
+-- KEYS[1] 下单用户key，KEYS[2] 订单stream，KEYS[3] 下单用户位图，KEYS[4] 秒杀时间窗口，都带有{voucherId}哈希标签
+-- ARGV[1] 优惠券id，ARGV[2] 用户id，ARGV[3] 订单id
+-- ARGV[4] 去重方式 set/bitmap，ARGV[5] 位图可容纳的userId上限，ARGV[6] 去重key的过期时间戳（秒），0表示不过期
+-- ARGV[7] 是否写入订单stream，使用进程内订单队列时为0
+local orderKey = KEYS[1]
+local streamKey = KEYS[2]
+local buyersKey = KEYS[3]
+local windowKey = KEYS[4]
+local voucherId = ARGV[1]
+local userId = ARGV[2]
+local orderId = ARGV[3]
+local dedup = newDedup(orderKey, buyersKey, userId, ARGV[4], tonumber(ARGV[5]), tonumber(ARGV[6]))
+local enqueue = ARGV[7]
+
+-- 1.校验秒杀时间窗口，尚未开始返回3，已经结束返回4
+local inWindow = checkWindow(windowKey)
+if(inWindow ~= 0) then
+    return inWindow
+end
+-- 2.判断用户是否下单
+if(hasOrdered(dedup)) then
+    return 2
+end
+-- 3.下单（保存用户）并发送消息到队列中
+saveOrder(dedup, streamKey, voucherId, orderId, enqueue)
+return 0
@@ -0,0 +1,68 @@
+-- 秒杀下单脚本的公共函数，加载时拼接在 seckill.lua、seckill-segment.lua、seckill-leased.lua、order-publish.lua 之前
+-- 这里只定义函数，不读取KEYS和ARGV，key和参数由各脚本传入
+
+-- 校验秒杀时间窗口，以Redis时钟为准；没有时间窗口的优惠券不限制
+-- 返回0表示在窗口内，3表示尚未开始，4表示已经结束
+local function checkWindow(windowKey)
+    local window = redis.call('hmget', windowKey, 'begin', 'end')
+    if(window[1] and window[2]) then
+        -- 调用TIME之后还有写操作，需要按命令复制（Redis 5以后默认如此）
+        redis.replicate_commands()
+        local time = redis.call('time')
+        local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+        if(now < tonumber(window[1])) then
+            return 3
+        end
+        if(now > tonumber(window[2])) then
+            return 4
+        end
+    end
+    return 0
+end
+
+-- 一人一单去重：位图模式下，数字且未超过上限的userId使用位图 buyersKey，其余回退到SET orderKey
+local function newDedup(orderKey, buyersKey, userId, dedupMode, bitmapLimit, expireAt)
+    local offset = tonumber(userId)
+    local useBitmap = dedupMode == 'bitmap' and offset ~= nil and offset >= 0 and offset < bitmapLimit
+    local dedup = { orderKey = orderKey, buyersKey = buyersKey, userId = userId,
+                    offset = offset, useBitmap = useBitmap, expireAt = expireAt, key = orderKey }
+    if(useBitmap) then
+        dedup.key = buyersKey
+    end
+    return dedup
+end
+
+-- 判断用户是否下单 SISMEMBER orderKey userId / GETBIT buyersKey userId
+local function hasOrdered(dedup)
+    if(dedup.useBitmap) then
+        return redis.call('getbit', dedup.buyersKey, dedup.offset) == 1
+    end
+    return redis.call('sismember', dedup.orderKey, dedup.userId) == 1
+end
+
+-- 发送订单消息 XADD streamKey * userId .. voucherId .. id ..
+-- stream不存在（还没有创建或者已被清理）时先创建消费者组 g1（RedisConstants.SECKILL_ORDER_GROUP），
+-- 消息不会写进没有消费者组、也就没有人消费的stream
+local function enqueueOrder(streamKey, userId, voucherId, orderId)
+    if(redis.call('exists', streamKey) == 0) then
+        redis.call('xgroup', 'create', streamKey, 'g1', '0', 'MKSTREAM')
+    end
+    redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+end
+
+-- 下单（保存用户）sadd orderKey userId / setbit buyersKey userId 1，去重key第一次写入时设置过期时间；
+-- enqueue为1时发送消息到队列中
+local function saveOrder(dedup, streamKey, voucherId, orderId, enqueue)
+    if(dedup.useBitmap) then
+        redis.call('setbit', dedup.buyersKey, dedup.offset, 1)
+    else
+        redis.call('sadd', dedup.orderKey, dedup.userId)
+    end
+    if(dedup.expireAt > 0 and redis.call('ttl', dedup.key) == -1) then
+        redis.call('expireat', dedup.key, dedup.expireAt)
+    end
+    if(enqueue == '1') then
+        enqueueOrder(streamKey, dedup.userId, voucherId, orderId)
+    end
+end
+
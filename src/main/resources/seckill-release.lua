@@ -0,0 +1,26 @@
+-- 已取消的订单归还库存和一人一单资格，按订单id只执行一次
+-- KEYS[1] 库存key，KEYS[2] 下单用户key，KEYS[3] 下单用户位图，KEYS[4] 已归还的订单id，带有同一个哈希标签
+-- ARGV[1] 用户id，ARGV[2] 去重方式 set/bitmap，ARGV[3] 位图可容纳的userId上限
+-- ARGV[4] 订单id，ARGV[5] 已归还记录的过期时间戳（秒），0表示不过期
+-- 返回1表示已归还库存；库存key不存在（还没有预热）时返回0，预热时会从数据库加载已归还的库存；该订单已经归还过时返回2
+local userId = ARGV[1]
+-- 0.记录订单已归还，重复执行时直接返回
+if(redis.call('sadd', KEYS[4], ARGV[4]) == 0) then
+    return 2
+end
+local expireAt = tonumber(ARGV[5])
+if(expireAt > 0 and redis.call('ttl', KEYS[4]) == -1) then
+    redis.call('expireat', KEYS[4], expireAt)
+end
+-- 1.移除下单用户，该用户可以重新下单
+redis.call('srem', KEYS[2], userId)
+local offset = tonumber(userId)
+if(ARGV[2] == 'bitmap' and offset ~= nil and offset >= 0 and offset < tonumber(ARGV[3])) then
+    redis.call('setbit', KEYS[3], offset, 0)
+end
+-- 2.归还库存，不能凭空创建库存key，否则预热会认为该优惠券已经加载过
+if(redis.call('exists', KEYS[1]) == 0) then
+    return 0
+end
+redis.call('incrby', KEYS[1], 1)
+return 1
@@ -0,0 +1,45 @@
+-- 分段库存秒杀脚本，只操作用户所属分段的key；加载时拼接在 seckill-order.lua 之后
+-- 1.参数列表
+-- KEYS[1] 本分段库存key，KEYS[2] 本分段下单用户key，KEYS[3] 本分段订单stream，KEYS[4] 本分段下单用户位图，
+-- KEYS[5] 本分段的秒杀时间窗口，都带有{voucherId:i}哈希标签
+-- ARGV[1] 优惠券id，ARGV[2] 用户id，ARGV[3] 订单id
+-- ARGV[4] 是否已从兄弟分段借到库存，1表示已借到，本分段不再扣减
+-- ARGV[5] 去重方式 set/bitmap，ARGV[6] 位图可容纳的userId上限，ARGV[7] 去重key的过期时间戳（秒），0表示不过期
+-- ARGV[8] 是否写入订单stream，使用进程内订单队列时为0
+local stockKey = KEYS[1]
+local orderKey = KEYS[2]
+local streamKey = KEYS[3]
+local buyersKey = KEYS[4]
+local windowKey = KEYS[5]
+local voucherId = ARGV[1]
+local userId = ARGV[2]
+local orderId = ARGV[3]
+local borrowed = ARGV[4]
+local dedup = newDedup(orderKey, buyersKey, userId, ARGV[5], tonumber(ARGV[6]), tonumber(ARGV[7]))
+local enqueue = ARGV[8]
+
+-- 2.本分段库存key不存在，说明还没有预热，返回5，由调用方异步加载
+local stock = tonumber(redis.call('get', stockKey))
+if(stock == nil) then
+    return 5
+end
+-- 3.校验秒杀时间窗口，尚未开始返回3，已经结束返回4
+local inWindow = checkWindow(windowKey)
+if(inWindow ~= 0) then
+    return inWindow
+end
+-- 4.判断用户是否下单
+if(hasOrdered(dedup)) then
+    return 2
+end
+-- 5.扣本分段库存，已借到库存时跳过
+if(borrowed ~= '1') then
+    if(stock <= 0) then
+        -- 本分段库存不足，返回1，由调用方尝试兄弟分段
+        return 1
+    end
+    redis.call('incrby', stockKey, -1)
+end
+-- 6.下单（保存用户）并发送消息到队列中
+saveOrder(dedup, streamKey, voucherId, orderId, enqueue)
+return 0
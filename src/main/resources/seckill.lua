@@ -1,3 +1,4 @@
+-- 加载时拼接在 seckill-order.lua 之后，checkWindow、newDedup、hasOrdered、saveOrder 定义在其中
 -- 1.参数列表
 -- 1.1.优惠券id
 local voucherId = ARGV[1]
@@ -5,28 +6,53 @@ local voucherId = ARGV[1]
 local userId = ARGV[2]
 -- 1.3.订单id
 local orderId = ARGV[3]
+-- 1.4.去重方式 set/bitmap
+local dedupMode = ARGV[4]
+-- 1.5.位图可容纳的userId上限
+local bitmapLimit = tonumber(ARGV[5])
+-- 1.6.去重key的过期时间戳（秒），0表示不过期
+local expireAt = tonumber(ARGV[6])
+-- 1.7.是否写入订单stream，使用进程内订单队列时为0
+local enqueue = ARGV[7]
 
--- 2.数据key
--- 2.1.库存key
-local stockKey = 'seckill:stock:' .. voucherId
--- 2.2.订单key
-local orderKey = 'seckill:order:' .. voucherId
+-- 2.数据key，由调用方通过KEYS传入，都带有{voucherId}哈希标签，兼容Redis Cluster
+-- 2.1.库存key seckill:stock:{voucherId}
+local stockKey = KEYS[1]
+-- 2.2.订单key seckill:order:{voucherId}
+local orderKey = KEYS[2]
+-- 2.3.订单消息队列 stream.orders:{voucherId}
+local streamKey = KEYS[3]
+-- 2.4.下单用户位图 seckill:buyers:{voucherId}
+local buyersKey = KEYS[4]
+-- 2.5.秒杀时间窗口 seckill:window:{voucherId}
+local windowKey = KEYS[5]
+
+-- 2.6.位图模式下，数字且未超过上限的userId使用位图，其余回退到SET
+local dedup = newDedup(orderKey, buyersKey, userId, dedupMode, bitmapLimit, expireAt)
 
 -- 3.脚本业务
+-- 3.0.校验秒杀时间窗口，尚未开始返回3，已经结束返回4
+local inWindow = checkWindow(windowKey)
+if(inWindow ~= 0) then
+    return inWindow
+end
 -- 3.1.判断库存是否充足 get stockKey
-if(tonumber(redis.call('get', stockKey)) <= 0) then -- tonumber转换为数字类型
+local stock = tonumber(redis.call('get', stockKey)) -- tonumber转换为数字类型
+if(stock == nil) then
+    -- 库存key不存在（Redis被清空或优惠券创建时还没有预热），返回5，由调用方异步加载
+    return 5
+end
+if(stock <= 0) then
     -- 3.2.库存不足，返回1
     return 1
 end
--- 3.2.判断用户是否下单 SISMEMBER orderKey userId
-if(redis.call('sismember', orderKey, userId) == 1) then
+-- 3.2.判断用户是否下单
+if(hasOrdered(dedup)) then
     -- 3.3.存在，说明是重复下单，返回2
     return 2
 end
 -- 3.4.扣库存 incrby stockKey -1
 redis.call('incrby', stockKey, -1)
--- 3.5.下单（保存用户）sadd orderKey userId
-redis.call('sadd', orderKey, userId)
--- 3.6.发送消息到队列中， XADD stream.orders * k1 v1 k2 v2 ...
-redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
-return 0
\ No newline at end of file
+-- 3.5.下单（保存用户）并发送消息到队列中
+saveOrder(dedup, streamKey, voucherId, orderId, enqueue)
+return 0
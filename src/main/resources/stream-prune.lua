@@ -0,0 +1,33 @@
+-- 删除已经消费完毕的订单stream，检查和删除在同一个脚本中完成，检查之后不会再有消息写入被删除的stream
+-- KEYS[1] 订单stream
+-- 返回1表示已删除（或者不存在），0表示还有未投递或未确认的消息
+local streamKey = KEYS[1]
+if(redis.call('exists', streamKey) == 0) then
+    return 1
+end
+-- XINFO 的结果按命令复制（Redis 5以后默认如此）
+redis.replicate_commands()
+
+-- XINFO返回 [字段, 值, 字段, 值 ...]，转换为table
+local function toTable(reply)
+    local t = {}
+    for i = 1, #reply, 2 do
+        t[reply[i]] = reply[i + 1]
+    end
+    return t
+end
+
+local stream = toTable(redis.call('xinfo', 'stream', streamKey))
+local groups = redis.call('xinfo', 'groups', streamKey)
+if(#groups == 0 and stream['length'] > 0) then
+    -- 有消息但没有消费者组，不能删除
+    return 0
+end
+for _, reply in ipairs(groups) do
+    local group = toTable(reply)
+    if(group['pending'] > 0 or group['last-delivered-id'] ~= stream['last-generated-id']) then
+        return 0
+    end
+end
+redis.call('del', streamKey)
+return 1
@@ -0,0 +1,6 @@
+-- 续期workerId租约，KEYS[1] 租约key，ARGV[1] 本节点标示，ARGV[2] 过期时间（秒）
+-- 标示一致才续期，避免续上已被其他节点接管的租约
+if (redis.call('GET', KEYS[1]) == ARGV[1]) then
+    return redis.call('EXPIRE', KEYS[1], ARGV[2])
+end
+return 0
@@ -0,0 +1,138 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.OrderQueue;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * redis-stream / blocking / ring-buffer 三种订单队列的投递吞吐对比
+ * <p>
+ * latencyMicros 模拟外部调用耗时：进程内队列为每批订单的落库耗时（消费跟不上时队列写满，投递被背压），
+ * redis-stream 为登记stream的SADD和 order-publish.lua 各一次往返（只测投递，消费依赖真实的Redis，不在这里测）。
+ * 每组参数单独fork，进程内队列的静态消费线程互不影响。不属于单元测试，surefire不会执行，在IDE中直接运行 main
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderQueueBenchmark {
+
+    @Param({OrderQueue.REDIS_STREAM, OrderQueue.BLOCKING, OrderQueue.RING_BUFFER})
+    public String queue;
+
+    @Param({"false", "true"})
+    public boolean batchEnabled;
+
+    @Param({"0", "50"})
+    public long latencyMicros;
+
+    private final AtomicLong orderId = new AtomicLong();
+    private OrderQueue orderQueue;
+
+    @Setup
+    public void setUp() {
+        SeckillProperties properties = new SeckillProperties();
+        properties.getOrder().setQueue(queue);
+        properties.getOrder().setBatchEnabled(batchEnabled);
+        long latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+        VoucherOrderWriter writer = new VoucherOrderWriter() {
+            @Override
+            public void writeOrRelease(List<VoucherOrder> orders) {
+                spin(latencyNanos);
+            }
+        };
+        switch (queue) {
+            case OrderQueue.BLOCKING:
+                BlockingOrderQueue blocking = new BlockingOrderQueue();
+                ReflectionTestUtils.setField(blocking, "seckillProperties", properties);
+                ReflectionTestUtils.setField(blocking, "voucherOrderWriter", writer);
+                blocking.init();
+                orderQueue = blocking;
+                break;
+            case OrderQueue.RING_BUFFER:
+                RingBufferOrderQueue ring = new RingBufferOrderQueue();
+                ReflectionTestUtils.setField(ring, "seckillProperties", properties);
+                ReflectionTestUtils.setField(ring, "voucherOrderWriter", writer);
+                ring.init();
+                orderQueue = ring;
+                break;
+            default:
+                // 不启动读取线程，只测投递
+                RedisStreamOrderQueue stream = new RedisStreamOrderQueue();
+                ReflectionTestUtils.setField(stream, "seckillProperties", properties);
+                ReflectionTestUtils.setField(stream, "voucherOrderWriter", writer);
+                ReflectionTestUtils.setField(stream, "voucherOrderStreamRegistry", new VoucherOrderStreamRegistry() {
+                    @Override
+                    public void register(String streamKey) {
+                        // 消费者组创建过之后，每次登记只剩一次SADD往返
+                        spin(latencyNanos);
+                    }
+                });
+                ReflectionTestUtils.setField(stream, "stringRedisTemplate", new StringRedisTemplate() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+                        spin(latencyNanos);
+                        return (T) Long.valueOf(1);
+                    }
+                });
+                orderQueue = stream;
+        }
+    }
+
+    /**
+     * 中断进程内队列的消费线程，否则fork出的JVM要等待非守护线程超时才能退出
+     */
+    @TearDown
+    public void tearDown() {
+        if (!OrderQueue.REDIS_STREAM.equals(queue)) {
+            ((ExecutorService) ReflectionTestUtils.getField(orderQueue.getClass(), "SECKILL_ORDER_EXECUTOR")).shutdownNow();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void publish() {
+        long id = orderId.incrementAndGet();
+        orderQueue.publish(id, id, 9L);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void publishContended() {
+        long id = orderId.incrementAndGet();
+        orderQueue.publish(id, id, 9L);
+    }
+
+    private static void spin(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        long deadline = System.nanoTime() + nanos;
+        while (System.nanoTime() < deadline) {
+            // 自旋等待，sleep的精度不够
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(OrderQueueBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,66 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class RingBufferOrderQueueTest {
+
+    /**
+     * 容量4，控制消费节奏让一批订单跨越数组末尾：[0] [1,2] [3,4]，序号4写在下标0
+     */
+    @Test
+    void batchWrapsAroundEndOfRing() throws InterruptedException {
+        SeckillProperties properties = new SeckillProperties();
+        properties.getOrder().setQueueCapacity(4);
+        properties.getOrder().setBatchEnabled(true);
+        properties.getOrder().setBatchSize(4);
+
+        // 每次落库记录本批订单id，然后等待放行
+        BlockingQueue<List<Long>> batches = new LinkedBlockingQueue<>();
+        Semaphore permits = new Semaphore(0);
+        VoucherOrderWriter writer = mock(VoucherOrderWriter.class);
+        doAnswer(invocation -> {
+            List<VoucherOrder> batch = invocation.getArgument(0);
+            batches.add(batch.stream().map(VoucherOrder::getId).collect(Collectors.toList()));
+            permits.acquire();
+            return null;
+        }).when(writer).writeOrRelease(anyList());
+
+        RingBufferOrderQueue queue = new RingBufferOrderQueue();
+        ReflectionTestUtils.setField(queue, "seckillProperties", properties);
+        ReflectionTestUtils.setField(queue, "voucherOrderWriter", writer);
+        queue.init();
+
+        queue.publish(100L, 1L, 9L);
+        assertEquals(Collections.singletonList(100L), batches.poll(2, TimeUnit.SECONDS));
+
+        queue.publish(101L, 2L, 9L);
+        queue.publish(102L, 3L, 9L);
+        permits.release();
+        assertEquals(Arrays.asList(101L, 102L), batches.poll(2, TimeUnit.SECONDS));
+
+        queue.publish(103L, 4L, 9L);
+        queue.publish(104L, 5L, 9L);
+        permits.release();
+        assertEquals(Arrays.asList(103L, 104L), batches.poll(2, TimeUnit.SECONDS));
+
+        permits.release();
+        assertTrue(queue.hasCapacity());
+    }
+}
@@ -0,0 +1,84 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.mapper.SeckillVoucherStockMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class SeckillVoucherServiceImplTest {
+
+    private static final Long VOUCHER_ID = 10L;
+
+    // 各桶库存，由mock的mapper读写
+    private int[] stocks;
+    private SeckillVoucherStockMapper mapper;
+    private SeckillVoucherServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        mapper = mock(SeckillVoucherStockMapper.class);
+        when(mapper.deduct(eq(VOUCHER_ID), anyInt(), anyInt())).thenAnswer(invocation -> {
+            int bucket = invocation.getArgument(1);
+            int count = invocation.getArgument(2);
+            if (stocks[bucket] < count) {
+                return 0;
+            }
+            stocks[bucket] -= count;
+            return 1;
+        });
+        when(mapper.lockStock(eq(VOUCHER_ID), anyInt())).thenAnswer(invocation -> {
+            int stock = stocks[(int) invocation.getArgument(1)];
+            return stock > 0 ? stock : null;
+        });
+        SeckillProperties properties = new SeckillProperties();
+        properties.getStock().setDbBuckets(4);
+        service = new SeckillVoucherServiceImpl();
+        ReflectionTestUtils.setField(service, "seckillVoucherStockMapper", mapper);
+        ReflectionTestUtils.setField(service, "seckillProperties", properties);
+        service.initStock(VOUCHER_ID, 0);
+    }
+
+    @Test
+    void homeBucketEnough() {
+        stocks = new int[]{1, 1, 3, 1};
+
+        assertTrue(service.deductStock(VOUCHER_ID, 2L, 2));
+        assertArrayEquals(new int[]{1, 1, 1, 1}, stocks);
+        verify(mapper, never()).lockStock(any(), anyInt());
+    }
+
+    @Test
+    void drainedHomeBucketFallsBackToLowerBucketsInOrder() {
+        // 本桶（3号）已被并发的订单扣完，更小序号的桶还有库存
+        stocks = new int[]{1, 2, 0, 0};
+
+        assertTrue(service.deductStock(VOUCHER_ID, 3L, 3));
+        assertArrayEquals(new int[]{0, 0, 0, 0}, stocks);
+        InOrder inOrder = inOrder(mapper);
+        inOrder.verify(mapper).deduct(VOUCHER_ID, 3, 3);
+        inOrder.verify(mapper).lockStock(VOUCHER_ID, 0);
+        inOrder.verify(mapper).lockStock(VOUCHER_ID, 1);
+        verify(mapper, never()).lockStock(VOUCHER_ID, 2);
+    }
+
+    @Test
+    void partialHomeBucketIsCombinedWithOthers() {
+        stocks = new int[]{0, 1, 1, 1};
+
+        assertTrue(service.deductStock(VOUCHER_ID, 2L, 3));
+        assertArrayEquals(new int[]{0, 0, 0, 0}, stocks);
+    }
+
+    @Test
+    void falseOnlyWhenTotalStockIsShort() {
+        stocks = new int[]{1, 0, 1, 0};
+
+        assertFalse(service.deductStock(VOUCHER_ID, 1L, 3));
+    }
+}
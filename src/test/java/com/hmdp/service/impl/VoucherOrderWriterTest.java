@@ -0,0 +1,112 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class VoucherOrderWriterTest {
+
+    private final VoucherOrder first = order(100L, 1L);
+    private final VoucherOrder second = order(101L, 2L);
+    private final List<VoucherOrder> orders = Arrays.asList(first, second);
+
+    private SeckillProperties properties;
+    private IVoucherOrderServiceImpl voucherOrderService;
+    private VoucherOrderStatusTracker statusTracker;
+    private VoucherOrderExpiryManager expiryManager;
+    private VoucherOrderWriter writer;
+
+    private static VoucherOrder order(Long id, Long userId) {
+        VoucherOrder order = new VoucherOrder();
+        order.setId(id);
+        order.setUserId(userId);
+        order.setVoucherId(9L);
+        return order;
+    }
+
+    @BeforeEach
+    void setUp() {
+        properties = new SeckillProperties();
+        voucherOrderService = mock(IVoucherOrderServiceImpl.class);
+        statusTracker = mock(VoucherOrderStatusTracker.class);
+        expiryManager = mock(VoucherOrderExpiryManager.class);
+        writer = new VoucherOrderWriter();
+        ReflectionTestUtils.setField(writer, "voucherOrderService", voucherOrderService);
+        ReflectionTestUtils.setField(writer, "seckillProperties", properties);
+        ReflectionTestUtils.setField(writer, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(writer, "voucherOrderStatusTracker", statusTracker);
+        ReflectionTestUtils.setField(writer, "voucherOrderExpiryManager", expiryManager);
+        writer.init();
+    }
+
+    @Test
+    void duplicateIgnoredByUniqueIndexIsMarkedFailed() {
+        // 第二个订单与已有订单冲突（一人一单），唯一索引忽略了它
+        when(voucherOrderService.createVoucherOrderIfAbsent(first)).thenReturn(true);
+        when(voucherOrderService.createVoucherOrderIfAbsent(second)).thenReturn(false);
+        when(voucherOrderService.queryCreatedIds(anyList())).thenReturn(Collections.emptySet());
+
+        writer.write(orders);
+
+        verify(voucherOrderService).queryCreatedIds(Collections.singletonList(second));
+        verify(statusTracker).created(Collections.singletonList(first));
+        verify(statusTracker).failed(Collections.singletonList(second));
+        verify(expiryManager).schedule(Collections.singletonList(first));
+    }
+
+    @Test
+    void redeliveredOrderAlreadyInDbCountsAsCreated() {
+        properties.getOrder().setBatchEnabled(true);
+        // 批量插入少了一行：第一个订单是重复投递，之前已经落库
+        when(voucherOrderService.createVoucherOrderBatch(orders)).thenReturn(1);
+        when(voucherOrderService.queryCreatedIds(orders)).thenReturn(Collections.singleton(first.getId()));
+
+        writer.write(orders);
+
+        verify(voucherOrderService, never()).createVoucherOrderIfAbsent(any());
+        verify(statusTracker).created(Collections.singletonList(first));
+        verify(statusTracker).failed(Collections.singletonList(second));
+    }
+
+    @Test
+    void batchFailureFallsBackToWritingEachOrder() {
+        properties.getOrder().setBatchEnabled(true);
+        when(voucherOrderService.createVoucherOrderBatch(orders)).thenThrow(new IllegalStateException("Deadlock found"));
+        when(voucherOrderService.createVoucherOrderIfAbsent(any())).thenReturn(true);
+
+        writer.write(orders);
+
+        verify(voucherOrderService).createVoucherOrderIfAbsent(first);
+        verify(voucherOrderService).createVoucherOrderIfAbsent(second);
+        verify(voucherOrderService, never()).queryCreatedIds(anyList());
+        verify(statusTracker).created(orders);
+        verify(statusTracker).failed(Collections.emptyList());
+    }
+
+    @Test
+    void failedOrderDoesNotBlockTheRestButIsRethrown() {
+        properties.getOrder().setBatchEnabled(true);
+        when(voucherOrderService.createVoucherOrderBatch(orders)).thenThrow(new IllegalStateException("batch"));
+        IllegalStateException broken = new IllegalStateException("broken");
+        when(voucherOrderService.createVoucherOrderIfAbsent(first)).thenThrow(broken);
+        when(voucherOrderService.createVoucherOrderIfAbsent(second)).thenReturn(true);
+
+        assertSame(broken, assertThrows(IllegalStateException.class, () -> writer.write(orders)));
+
+        // 出问题的订单既不是已创建也不是失败，留给调用方重试
+        verify(statusTracker).created(Collections.singletonList(second));
+        verify(statusTracker).failed(Collections.emptyList());
+        verify(expiryManager).schedule(Collections.singletonList(second));
+    }
+}
@@ -0,0 +1,66 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.Voucher;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryCacheCodecTest {
+
+    private static Shop shop(String address) {
+        return new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setAddress(address)
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setScore(37)
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39, 123_000_000));
+    }
+
+    @Test
+    void roundTripWithLogicalExpire() {
+        BinaryCacheCodec codec = new BinaryCacheCodec(0);
+        Shop shop = shop("金华路锦昌文华苑29号");
+        long expireAt = System.currentTimeMillis() + 60_000;
+
+        byte[] bytes = codec.encode(shop, expireAt);
+        assertTrue(codec.accepts(bytes));
+        CacheEntry<Shop> entry = codec.decode(bytes, Shop.class, true);
+
+        assertNotNull(entry);
+        assertEquals(shop, entry.getValue());
+        assertEquals(expireAt, entry.getExpireAt());
+        // 空字段解码后仍为null
+        assertNull(entry.getValue().getImages());
+    }
+
+    @Test
+    void roundTripCompressed() {
+        BinaryCacheCodec codec = new BinaryCacheCodec(64);
+        Shop shop = shop(StrUtil.repeat("金华路锦昌文华苑29号", 50));
+
+        byte[] bytes = codec.encode(shop, 0);
+        assertTrue(bytes.length < shop.getAddress().getBytes().length);
+        CacheEntry<Shop> entry = codec.decode(bytes, Shop.class, false);
+
+        assertNotNull(entry);
+        assertEquals(shop, entry.getValue());
+        assertEquals(0, entry.getExpireAt());
+    }
+
+    @Test
+    void decodeAsOtherTypeReturnsNull() {
+        BinaryCacheCodec codec = new BinaryCacheCodec(0);
+        byte[] bytes = codec.encode(shop("金华路"), 0);
+
+        assertNull(codec.decode(bytes, Voucher.class, false));
+    }
+}
@@ -0,0 +1,98 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.Shop;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * json / binary / binary+压缩 三种缓存编码的编解码耗时对比
+ * <p>
+ * 值为一个Shop，addressRepeat 控制地址长度：1时约百字节，50时超过压缩阈值；
+ * logical=true 时按逻辑过期格式编码（json为RedisData包装，binary为头部的过期时间）。
+ * 每组参数编码后的字节数在启动时打印。不属于单元测试，surefire不会执行，在IDE中直接运行 main
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheCodecBenchmark {
+
+    /**
+     * 与 cache.compress-threshold 的默认值一致
+     */
+    private static final int COMPRESS_THRESHOLD = 1024;
+
+    @Param({"json", "binary", "binary-deflate"})
+    public String codec;
+
+    @Param({"1", "50"})
+    public int addressRepeat;
+
+    @Param({"false", "true"})
+    public boolean logical;
+
+    private CacheCodec cacheCodec;
+    private Shop shop;
+    private long expireAt;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() {
+        switch (codec) {
+            case "json":
+                cacheCodec = new JsonCacheCodec();
+                break;
+            case "binary":
+                cacheCodec = new BinaryCacheCodec(0);
+                break;
+            default:
+                cacheCodec = new BinaryCacheCodec(COMPRESS_THRESHOLD);
+        }
+        shop = new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg")
+                .setArea("大关")
+                .setAddress(StrUtil.repeat("金华路锦昌文华苑29号", addressRepeat))
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 11, 16, 8, 9));
+        expireAt = logical ? System.currentTimeMillis() + 60_000 : 0;
+        encoded = cacheCodec.encode(shop, expireAt);
+        System.out.println("\n" + codec + " addressRepeat=" + addressRepeat + " logical=" + logical
+                + " 编码后字节数:" + encoded.length);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return cacheCodec.encode(shop, expireAt);
+    }
+
+    @Benchmark
+    public CacheEntry<Shop> decode() {
+        return cacheCodec.decode(encoded, Shop.class, logical);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(CacheCodecBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,127 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * incr / segment / snowflake 三种id生成方式的吞吐对比
+ * <p>
+ * Redis用内存里的计数器代替，每条命令额外自旋 rttMicros 微秒模拟一次网络往返：
+ * incr 每个id一次往返，segment 每 segmentSize 个id一次往返（且大多被异步预取吸收），snowflake 只在租借workerId时访问Redis。
+ * 不属于单元测试，surefire不会执行，在IDE中直接运行 main
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdGeneratorBenchmark {
+
+    private static final String PREFIX = "order";
+
+    @Param({SeckillProperties.Id.INCR, SeckillProperties.Id.SEGMENT, SeckillProperties.Id.SNOWFLAKE})
+    public String mode;
+
+    /**
+     * 模拟的Redis往返耗时，0表示只比较本地开销
+     */
+    @Param({"0", "100"})
+    public long rttMicros;
+
+    private IdGenerator generator;
+
+    @Setup
+    public void setUp() {
+        SeckillProperties properties = new SeckillProperties();
+        properties.getId().setMode(mode);
+        StringRedisTemplate redis = new FakeRedisTemplate(TimeUnit.MICROSECONDS.toNanos(rttMicros));
+        generator = SeckillProperties.Id.SNOWFLAKE.equals(mode)
+                ? new SnowflakeIdWorker(redis, properties)
+                : new RedisIdWorker(redis, properties);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long nextId() {
+        return generator.nextId(PREFIX);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long nextIdContended() {
+        return generator.nextId(PREFIX);
+    }
+
+    /**
+     * 只实现id生成用到的命令：INCR、INCRBY、SET NX EX 和续期脚本
+     */
+    private static class FakeRedisTemplate extends StringRedisTemplate {
+        private final long rttNanos;
+        private final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+        private final ValueOperations<String, String> ops;
+
+        @SuppressWarnings("unchecked")
+        private FakeRedisTemplate(long rttNanos) {
+            this.rttNanos = rttNanos;
+            this.ops = (ValueOperations<String, String>) Proxy.newProxyInstance(
+                    ValueOperations.class.getClassLoader(),
+                    new Class<?>[]{ValueOperations.class},
+                    (proxy, method, args) -> {
+                        roundTrip();
+                        switch (method.getName()) {
+                            case "increment":
+                                long delta = args.length > 1 ? ((Number) args[1]).longValue() : 1;
+                                return counters.computeIfAbsent((String) args[0], k -> new AtomicLong())
+                                        .addAndGet(delta);
+                            case "setIfAbsent":
+                                return Boolean.TRUE;
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+
+        @Override
+        public ValueOperations<String, String> opsForValue() {
+            return ops;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+            roundTrip();
+            return (T) Long.valueOf(1);
+        }
+
+        private void roundTrip() {
+            if (rttNanos <= 0) {
+                return;
+            }
+            long deadline = System.nanoTime() + rttNanos;
+            while (System.nanoTime() < deadline) {
+                // 自旋等待，sleep的精度不够
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(IdGeneratorBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
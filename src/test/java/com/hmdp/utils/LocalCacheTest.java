@@ -0,0 +1,78 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalCacheTest {
+
+    private static final long TTL = 60_000;
+
+    /**
+     * 容量100：窗口区1个，主区99个
+     */
+    private static LocalCache<Integer> hotCache() {
+        LocalCache<Integer> cache = new LocalCache<>(100);
+        for (int i = 0; i < 100; i++) {
+            cache.put("hot" + i, i, TTL);
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 100; i++) {
+                cache.get("hot" + i);
+            }
+        }
+        return cache;
+    }
+
+    @Test
+    void oneOffKeysDoNotEvictHotKeys() {
+        LocalCache<Integer> cache = hotCache();
+
+        for (int i = 0; i < 200; i++) {
+            cache.put("cold" + i, i, TTL);
+        }
+
+        assertTrue(cache.size() <= 100);
+        // LRU会把热点全部挤掉；这里冷数据只访问过一次，基本竞争不过主区的热点，
+        // Count-Min Sketch的哈希冲突会高估少数冷数据的频率，允许少量替换
+        int hot = 0;
+        for (int i = 0; i < 100; i++) {
+            if (cache.get("hot" + i) != null) {
+                hot++;
+            }
+        }
+        int cold = 0;
+        for (int i = 0; i < 200; i++) {
+            if (cache.get("cold" + i) != null) {
+                cold++;
+            }
+        }
+        assertTrue(hot >= 80, "热点被淘汰了" + (100 - hot) + "个");
+        assertTrue(cold <= 20, "冷数据进入主区" + cold + "个");
+    }
+
+    @Test
+    void frequentNewKeyIsAdmitted() {
+        LocalCache<Integer> cache = hotCache();
+
+        cache.put("fresh", 1, TTL);
+        for (int i = 0; i < 10; i++) {
+            cache.get("fresh");
+        }
+        // 把fresh挤出窗口区，它的访问频率高于主区的淘汰候选
+        cache.put("next", 2, TTL);
+
+        assertEquals(1, cache.get("fresh"));
+        assertTrue(cache.size() <= 100);
+    }
+
+    @Test
+    void expiredEntryIsRemoved() throws InterruptedException {
+        LocalCache<Integer> cache = new LocalCache<>(10);
+        cache.put("k", 1, 1);
+        Thread.sleep(5);
+
+        assertNull(cache.get("k"));
+        assertEquals(0, cache.size());
+    }
+}
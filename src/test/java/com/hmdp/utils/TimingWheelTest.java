@@ -0,0 +1,55 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimingWheelTest {
+
+    // 第一层每格10毫秒、共4格，超过40毫秒的任务进入上层
+    private final TimingWheel wheel = new TimingWheel("timing-wheel-test", 10, 4);
+
+    @AfterEach
+    void stop() {
+        wheel.stop();
+    }
+
+    @Test
+    void overflowTasksRunAfterDeadlineInOrder() throws InterruptedException {
+        long start = System.currentTimeMillis();
+        long[] delays = {300, 30, 700, 120};
+        List<Long> fired = new CopyOnWriteArrayList<>();
+        List<Long> lateness = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(delays.length);
+        for (long delay : delays) {
+            long deadline = start + delay;
+            wheel.schedule(deadline, () -> {
+                lateness.add(System.currentTimeMillis() - deadline);
+                fired.add(delay);
+                latch.countDown();
+            });
+        }
+
+        assertTrue(latch.await(3, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(30L, 120L, 300L, 700L), fired);
+        // 格子的到期时间按tickMs向下取整，最多提前一格
+        lateness.forEach(late -> assertTrue(late >= -10, "任务提前" + -late + "毫秒执行"));
+    }
+
+    @Test
+    void dueTaskRunsWithoutWaitingForNextTick() throws InterruptedException {
+        Thread.sleep(50);
+        // 时间轮的时钟只在格子到期时推进，已经过期的任务放入过期的格子，由工作线程马上取出执行
+        CountDownLatch latch = new CountDownLatch(1);
+        wheel.schedule(System.currentTimeMillis() - 1, latch::countDown);
+
+        assertTrue(latch.await(100, TimeUnit.MILLISECONDS));
+    }
+}